@@ -165,5 +165,9 @@ public class Main {
     Server.gapis,
     Server.gapisAuthToken,
     Server.useCache,
+    Server.cacheSize,
+    Server.useDiskCache,
+    Server.diskCacheDir,
+    Server.diskCacheSize,
   };
 }
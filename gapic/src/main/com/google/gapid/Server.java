@@ -32,6 +32,7 @@ import com.google.gapid.rpclib.schema.Dynamic;
 import com.google.gapid.rpclib.schema.Entity;
 import com.google.gapid.rpclib.schema.Message;
 import com.google.gapid.server.Client;
+import com.google.gapid.server.DiskCache;
 import com.google.gapid.server.GapidClientCache;
 import com.google.gapid.server.GapidClientGrpc;
 import com.google.gapid.server.GapisConnection;
@@ -40,7 +41,9 @@ import com.google.gapid.server.Version;
 import com.google.gapid.service.atom.AtomMetadata;
 import com.google.gapid.util.Flags;
 import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.OS;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -63,7 +66,21 @@ public class Server {
   public static final Flag<Boolean> useCache = Flags.value(
       "cache", true, "Whether to use a cache between the UI and the gapis server.");
 
+  public static final Flag<Integer> cacheSize = Flags.value(
+      "cache-size", 512, "The size in MB of the cache between the UI and the gapis server.");
+
+  public static final Flag<Boolean> useDiskCache = Flags.value(
+      "disk-cache", false, "Whether to persist the responses of the gapis server to disk.");
+
+  public static final Flag<String> diskCacheDir = Flags.value(
+      "disk-cache-dir", new File(OS.userHomeDir, ".gapic-cache").getPath(),
+      "Directory for the persistent cache of the responses of the gapis server.");
+
+  public static final Flag<Integer> diskCacheSize = Flags.value(
+      "disk-cache-size", 2048, "The size in MB of the persistent cache on disk.");
+
   private GapisConnection gapisConnection;
+  private GapidClientCache cache;
   private Client client;
 
   public void connect(GapisProcess.Listener listener) throws GapisInitException {
@@ -86,6 +103,10 @@ public class Server {
   }
 
   public void disconnect() {
+    if (cache != null) {
+      cache.logStats();
+      cache = null;
+    }
     if (gapisConnection != null) {
       gapisConnection.close();
       gapisConnection = null;
@@ -101,7 +122,8 @@ public class Server {
     try {
       GapidGrpc.GapidFutureStub service = connection.createGapidClient();
       if (useCache.get()) {
-        client = new Client(new GapidClientCache(service));
+        cache = new GapidClientCache(service, cacheSize.get() * 1024L * 1024L);
+        client = new Client(cache);
       } else {
         LOG.log(WARNING, "** Not using caching in the UI, this is only meant for testing. **");
         client = new Client(new GapidClientGrpc(service));
@@ -134,6 +156,23 @@ public class Server {
           ", wanted: " + GAPIC_VERSION.toPatternString(), "");
     }
     Info.setServerInfo(info);
+    openDiskCache(gapisVersion);
+  }
+
+  /**
+   * Backs the cache with a persistent cache, if enabled. Responses may change between server
+   * versions, so each version gets its own cache.
+   */
+  private void openDiskCache(Version gapisVersion) {
+    if (cache == null || !useDiskCache.get()) {
+      return;
+    }
+    try {
+      cache.setDiskCache(DiskCache.open(new File(diskCacheDir.get(), gapisVersion.toString()),
+          diskCacheSize.get() * 1024L * 1024L));
+    } catch (IOException e) {
+      LOG.log(WARNING, "Failed to open the disk cache, not using it", e);
+    }
   }
 
   /**
@@ -26,20 +26,27 @@ import com.google.gapid.image.Image.PixelValue;
 import com.google.gapid.util.Colors;
 
 import org.eclipse.swt.graphics.ImageData;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
+/**
+ * An {@link ImageBuffer} backed by a direct {@link ByteBuffer}, obtained from the
+ * {@link BufferPool}, that is uploaded to textures as is.
+ */
 public abstract class ArrayImageBuffer implements ImageBuffer {
+  protected static final int MIN_BAND_SIZE = 64 * 1024;
+
   public final int width, height;
-  private final byte[] data;
+  private final ByteBuffer data;
   private final int internalFormat, format, type;
 
-  public ArrayImageBuffer(int width, int height, byte[] data,
+  public ArrayImageBuffer(int width, int height, ByteBuffer data,
       int internalFormat, int format, int type) {
     this.width = width;
     this.height = height;
@@ -47,24 +54,48 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     this.internalFormat = internalFormat;
     this.format = format;
     this.type = type;
+    BufferPool.INSTANCE.track(this, data);
+  }
+
+  /**
+   * @return the size in bytes of the pixel data of this image.
+   */
+  public int getSize() {
+    return data.limit();
   }
 
   @Override
   public void uploadToTexture(Texture texture) {
-    ByteBuffer buffer = (ByteBuffer)BufferUtils.createByteBuffer(data.length)
-        .put(data)
-        .flip();
-    texture.loadData(width, height, internalFormat, format, type, buffer);
+    texture.loadData(width, height, internalFormat, format, type, data.duplicate());
   }
 
   @Override
   public ImageData getImageData() {
     ImageData result = Images.createImageData(width, height, true);
-    convert(data, result.data, result.alphaData, result.bytesPerLine);
+    // Large images are converted in parallel bands of rows.
+    int bands = getBandCount((long)width * height, height);
+    int rowsPerBand = (height + bands - 1) / bands;
+    IntStream.range(0, bands).parallel().forEach(band -> convert(data,
+        result.data, result.alphaData, result.bytesPerLine,
+        band * rowsPerBand, Math.min(height, (band + 1) * rowsPerBand)));
     return result;
   }
 
-  protected abstract void convert(byte[] src, byte[] dst, byte[] alpha, int stride);
+  /**
+   * Converts the given rows, counted from the top of the {@link ImageData}, of this image.
+   */
+  protected abstract void convert(
+      ByteBuffer src, byte[] dst, byte[] alpha, int stride, int startRow, int endRow);
+
+  /**
+   * @return the number of bands to split the given work into, such that each band has at least
+   * {@link #MIN_BAND_SIZE} items, but there are not more bands than needed to keep the common
+   * fork/join pool busy.
+   */
+  protected static int getBandCount(long items, int maxBands) {
+    return (int)Math.max(1, Math.min(Math.min(items / MIN_BAND_SIZE, maxBands),
+        4 * ForkJoinPool.getCommonPoolParallelism()));
+  }
 
   @Override
   public PixelValue getPixel(int x, int y) {
@@ -74,32 +105,60 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     return getPixel(x, y, data);
   }
 
-  protected abstract PixelValue getPixel(int x, int y, byte[] src);
+  protected abstract PixelValue getPixel(int x, int y, ByteBuffer src);
+
+  protected static FloatBuffer floats(ByteBuffer data) {
+    return data.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+  }
+
+  /**
+   * Reads {@code dst.length} bytes, starting at the given offset, into the given array.
+   */
+  protected static void get(ByteBuffer src, int offset, byte[] dst) {
+    ByteBuffer view = src.duplicate();
+    view.position(offset);
+    view.get(dst);
+  }
 
-  protected static ByteBuffer buffer(byte[] data) {
-    return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+  /**
+   * Reads {@code dst.length} floats, starting at the given offset, into the given array.
+   */
+  protected static void get(FloatBuffer src, int offset, float[] dst) {
+    FloatBuffer view = src.duplicate();
+    view.position(offset);
+    view.get(dst);
   }
 
   public abstract static class Builder {
     public final int width, height;
-    public final byte[] data;
+    public final ByteBuffer data;
     private final int pixelSize;
 
     public Builder(int width, int height, int pixelSize) {
       this.width = width;
       this.height = height;
-      this.data = new byte[pixelSize * width * height];
+      this.data = BufferPool.INSTANCE.allocate(pixelSize * width * height);
       this.pixelSize = pixelSize;
     }
 
-    public Builder update(byte[] src, int x, int y, int w, int h) {
+    /**
+     * Copies the given pixels, starting at the given buffer's position, into this image.
+     */
+    public Builder update(ByteBuffer src, int x, int y, int w, int h) {
+      ByteBuffer from = src.duplicate(), to = data.duplicate();
+      int start = from.position();
       if (x == 0 && w == width) {
         // Copying complete rows of pixels is easy.
-        System.arraycopy(src, 0, data, pixelSize * y * w, pixelSize * w * h);
+        from.limit(start + pixelSize * w * h);
+        to.position(pixelSize * y * w);
+        to.put(from);
       } else {
         // Copy one (incomplete) row at a time.
-        for (int row = 0, p = y * width, s = 0; row < h; row++, p += width, s += w * pixelSize) {
-          System.arraycopy(src, s, data, pixelSize * (p + x), pixelSize * w);
+        for (int row = 0, p = y * width, s = start; row < h;
+            row++, p += width, s += w * pixelSize) {
+          from.limit(s + pixelSize * w).position(s);
+          to.position(pixelSize * (p + x));
+          to.put(from);
         }
       }
       return this;
@@ -107,11 +166,13 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
 
     public Builder flip() {
       int s = pixelSize * width;
-      byte[] row = new byte[s];
-      for (int y = 0, i = 0, j = data.length - s; y < height / 2; y++, i += s, j -= s) {
-        System.arraycopy(data, i, row, 0, s);
-        System.arraycopy(data, j, data, i, s);
-        System.arraycopy(row, 0, data, j, s);
+      byte[] top = new byte[s], bottom = new byte[s];
+      ByteBuffer view = data.duplicate();
+      for (int y = 0, i = 0, j = data.limit() - s; y < height / 2; y++, i += s, j -= s) {
+        ((ByteBuffer)view.position(i)).get(top);
+        ((ByteBuffer)view.position(j)).get(bottom);
+        ((ByteBuffer)view.position(i)).put(bottom);
+        ((ByteBuffer)view.position(j)).put(top);
       }
       return this;
     }
@@ -120,15 +181,18 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
   }
 
   public static class RGBA8ImageBuffer extends ArrayImageBuffer {
-    public RGBA8ImageBuffer(int width, int height, byte[] data) {
+    public RGBA8ImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL11.GL_RGBA8, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = 4 * (height - 1) * width, ai = 0; row < height;
-          row++, si -= 4 * width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s += 4, d += 3, ai++) {
+    protected void convert(
+        ByteBuffer buffer, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      byte[] src = new byte[4 * width];
+      for (int row = startRow, di = row * stride, si = 4 * (height - 1 - row) * width,
+          ai = row * width; row < endRow; row++, si -= 4 * width, di += stride) {
+        get(buffer, si, src);
+        for (int col = 0, s = 0, d = di; col < width; col++, s += 4, d += 3, ai++) {
           dst[d + 0] = src[s + 0];
           dst[d + 1] = src[s + 1];
           dst[d + 2] = src[s + 2];
@@ -138,13 +202,13 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] data) {
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
       int i = 4 * (y * width + x);
       return new Pixel(
-          ((data[i + 3] & 0xFF) << 24) |
-          ((data[i + 0] & 0xFF) << 16) |
-          ((data[i + 1] & 0xFF) << 8) |
-          ((data[i + 2] & 0xFF) << 0));
+          ((data.get(i + 3) & 0xFF) << 24) |
+          ((data.get(i + 0) & 0xFF) << 16) |
+          ((data.get(i + 1) & 0xFF) << 8) |
+          ((data.get(i + 2) & 0xFF) << 0));
     }
 
     @Override
@@ -175,27 +239,30 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     private final FloatBuffer buffer;
     private final PixelInfo info;
 
-    public RGBAFloatImageBuffer(int width, int height, byte[] data) {
+    public RGBAFloatImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL30.GL_RGBA32F, GL11.GL_RGBA, GL11.GL_FLOAT);
-      this.buffer = buffer(data).asFloatBuffer();
+      this.buffer = floats(data);
       this.info = FloatPixelInfo.compute(buffer);
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = 4 * (height - 1) * width, ai = 0; row < height;
-          row++, si -= 4 * width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s += 4, d += 3, ai++) {
-          dst[d + 0] = clamp(buffer.get(s + 0));
-          dst[d + 1] = clamp(buffer.get(s + 1));
-          dst[d + 2] = clamp(buffer.get(s + 2));
-          alpha[ai] = clamp(buffer.get(s + 3));
+    protected void convert(
+        ByteBuffer data, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      float[] src = new float[4 * width];
+      for (int row = startRow, di = row * stride, si = 4 * (height - 1 - row) * width,
+          ai = row * width; row < endRow; row++, si -= 4 * width, di += stride) {
+        get(buffer, si, src);
+        for (int col = 0, s = 0, d = di; col < width; col++, s += 4, d += 3, ai++) {
+          dst[d + 0] = clamp(src[s + 0]);
+          dst[d + 1] = clamp(src[s + 1]);
+          dst[d + 2] = clamp(src[s + 2]);
+          alpha[ai] = clamp(src[s + 3]);
         }
       }
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] data) {
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
       int i = 4 * (y * width + x);
       return new Pixel(buffer.get(i + 0), buffer.get(i + 1), buffer.get(i + 2), buffer.get(i + 3));
     }
@@ -229,7 +296,7 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
 
   // TODO: The client may not actually need to distinguish between luminance and RGBA
   public static class Luminance8ImageBuffer extends ArrayImageBuffer {
-    public Luminance8ImageBuffer(int width, int height, byte[] data) {
+    public Luminance8ImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL11.GL_RGB8, GL11.GL_RED, GL11.GL_UNSIGNED_BYTE);
     }
 
@@ -240,10 +307,13 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = (height - 1) * width, ai = 0; row < height;
-          row++, si -= width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s++, d += 3, ai++) {
+    protected void convert(
+        ByteBuffer buffer, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      byte[] src = new byte[width];
+      for (int row = startRow, di = row * stride, si = (height - 1 - row) * width,
+          ai = row * width; row < endRow; row++, si -= width, di += stride) {
+        get(buffer, si, src);
+        for (int col = 0, s = 0, d = di; col < width; col++, s++, d += 3, ai++) {
           dst[d + 0] = src[s];
           dst[d + 1] = src[s];
           dst[d + 2] = src[s];
@@ -253,8 +323,8 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] src) {
-      return new Pixel(src[y * width + x]);
+    protected PixelValue getPixel(int x, int y, ByteBuffer src) {
+      return new Pixel(src.get(y * width + x));
     }
 
     @Override
@@ -286,9 +356,9 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     private final FloatBuffer buffer;
     private final PixelInfo info;
 
-    public LuminanceFloatImageBuffer(int width, int height, byte[] data) {
+    public LuminanceFloatImageBuffer(int width, int height, ByteBuffer data) {
       super(width, height, data, GL30.GL_RGB32F, GL11.GL_RED, GL11.GL_FLOAT);
-      this.buffer = buffer(data).asFloatBuffer();
+      this.buffer = floats(data);
       this.info = FloatPixelInfo.compute(buffer);
     }
 
@@ -299,11 +369,14 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected void convert(byte[] src, byte[] dst, byte[] alpha, int stride) {
-      for (int row = 0, di = 0, si = (height - 1) * width, ai = 0; row < height;
-          row++, si -= width, di += stride) {
-        for (int col = 0, s = si, d = di; col < width; col++, s++, d += 3, ai++) {
-          byte value = clamp(buffer.get(s));
+    protected void convert(
+        ByteBuffer data, byte[] dst, byte[] alpha, int stride, int startRow, int endRow) {
+      float[] src = new float[width];
+      for (int row = startRow, di = row * stride, si = (height - 1 - row) * width,
+          ai = row * width; row < endRow; row++, si -= width, di += stride) {
+        get(buffer, si, src);
+        for (int col = 0, s = 0, d = di; col < width; col++, s++, d += 3, ai++) {
+          byte value = clamp(src[s]);
           dst[d + 0] = value;
           dst[d + 1] = value;
           dst[d + 2] = value;
@@ -313,7 +386,7 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     @Override
-    protected PixelValue getPixel(int x, int y, byte[] data) {
+    protected PixelValue getPixel(int x, int y, ByteBuffer data) {
       return new Pixel(buffer.get(y * width + x));
     }
 
@@ -350,15 +423,32 @@ public abstract class ArrayImageBuffer implements ImageBuffer {
     }
 
     public static PixelInfo compute(FloatBuffer buffer) {
-      if (!buffer.hasRemaining()) {
+      int count = buffer.remaining();
+      if (count == 0) {
         return PixelInfo.NULL_INFO;
       }
 
+      // Large images are scanned in parallel bands, reading a chunk of floats at a time.
+      int bands = getBandCount(count, Integer.MAX_VALUE);
+      int perBand = (count + bands - 1) / bands;
+      return IntStream.range(0, bands).parallel()
+          .mapToObj(band -> compute(buffer, band * perBand, Math.min(count, (band + 1) * perBand)))
+          .reduce((a, b) -> new FloatPixelInfo(Math.min(a.min, b.min), Math.max(a.max, b.max)))
+          .get();
+    }
+
+    private static FloatPixelInfo compute(FloatBuffer buffer, int start, int end) {
+      float[] chunk = new float[Math.min(MIN_BAND_SIZE, end - start)];
+      FloatBuffer view = buffer.duplicate();
+      view.position(start);
       float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
-      for (int i = 0; i < buffer.remaining(); i++) {
-        float value = buffer.get(i);
-        min = Math.min(min, value);
-        max = Math.max(max, value);
+      for (int i = start; i < end; i += chunk.length) {
+        int n = Math.min(chunk.length, end - i);
+        view.get(chunk, 0, n);
+        for (int j = 0; j < n; j++) {
+          min = Math.min(min, chunk[j]);
+          max = Math.max(max, chunk[j]);
+        }
       }
       return new FloatPixelInfo(min, max);
     }
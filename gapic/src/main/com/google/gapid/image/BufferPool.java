@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.image;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A pool of direct, little endian {@link ByteBuffer ByteBuffers} holding image data. A buffer is
+ * tracked against the object owning it and returned to the pool once that owner has been garbage
+ * collected, so that the large, off-heap buffers of images of the same size can be reused across
+ * frames, rather than reallocated.
+ */
+public class BufferPool {
+  public static final BufferPool INSTANCE = new BufferPool(256 * 1024 * 1024);
+
+  private static final int GRANULARITY = 4096;
+  private static final byte[] ZEROS = new byte[64 * 1024];
+
+  private final long maxPooledBytes;
+  private final ReferenceQueue<Object> released = new ReferenceQueue<Object>();
+  // All the fields below are guarded by this.
+  private final Set<Owned> owned = Sets.newIdentityHashSet();
+  private final Map<Integer, Deque<ByteBuffer>> free = Maps.newHashMap();
+  private long pooledBytes = 0;
+  private long allocated = 0, reused = 0;
+
+  public BufferPool(long maxPooledBytes) {
+    this.maxPooledBytes = maxPooledBytes;
+  }
+
+  /**
+   * @return a zeroed, direct buffer with a limit of the given size, reusing a pooled buffer if one
+   * is available.
+   */
+  public ByteBuffer allocate(int size) {
+    int capacity = (size + GRANULARITY - 1) / GRANULARITY * GRANULARITY;
+    ByteBuffer result = null;
+    synchronized (this) {
+      reclaim();
+      Deque<ByteBuffer> buffers = free.get(capacity);
+      if (buffers != null) {
+        result = buffers.pollFirst();
+      }
+      if (result != null) {
+        pooledBytes -= capacity;
+        reused++;
+      } else {
+        allocated++;
+      }
+    }
+
+    if (result == null) {
+      result = ByteBuffer.allocateDirect(capacity);
+    } else {
+      clear(result);
+    }
+    result.clear().limit(size);
+    return result.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Returns the given buffer to the pool once the given owner is no longer reachable. The buffer
+   * must not be referenced by anything but its owner.
+   */
+  public synchronized void track(Object owner, ByteBuffer buffer) {
+    owned.add(new Owned(owner, buffer, released));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BufferPool{pooled=" + pooledBytes + ", tracked=" + owned.size() +
+        ", allocated=" + allocated + ", reused=" + reused + "}";
+  }
+
+  private void reclaim() {
+    for (Owned ref; (ref = (Owned)released.poll()) != null; ) {
+      owned.remove(ref);
+      int capacity = ref.buffer.capacity();
+      // Buffers that do not fit into the pool are left for the garbage collector.
+      if (pooledBytes + capacity <= maxPooledBytes) {
+        free.computeIfAbsent(capacity, k -> new ArrayDeque<ByteBuffer>()).addFirst(ref.buffer);
+        pooledBytes += capacity;
+      }
+    }
+  }
+
+  private static void clear(ByteBuffer buffer) {
+    buffer.clear();
+    while (buffer.remaining() > ZEROS.length) {
+      buffer.put(ZEROS);
+    }
+    buffer.put(ZEROS, 0, buffer.remaining());
+  }
+
+  private static class Owned extends PhantomReference<Object> {
+    public final ByteBuffer buffer;
+
+    public Owned(Object owner, ByteBuffer buffer, ReferenceQueue<Object> queue) {
+      super(owner, queue);
+      this.buffer = buffer;
+    }
+  }
+}
@@ -17,14 +17,22 @@ package com.google.gapid.image;
 
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
-import static com.google.gapid.util.Paths.blob;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gapid.util.Paths.imageData;
 import static com.google.gapid.util.Paths.imageInfo;
 import static com.google.gapid.util.Paths.resourceInfo;
+import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gapid.proto.image.Image.ID;
 import com.google.gapid.proto.image.Image.Info2D;
 import com.google.gapid.proto.service.Service.Value;
 import com.google.gapid.proto.service.gfxapi.GfxAPI.Cubemap;
@@ -32,12 +40,29 @@ import com.google.gapid.proto.service.gfxapi.GfxAPI.CubemapLevel;
 import com.google.gapid.proto.service.gfxapi.GfxAPI.Texture2D;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
+import com.google.gapid.util.Paths;
 
 import org.eclipse.swt.graphics.ImageData;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
 
 public class FetchedImage implements MultiLevelImage {
+  private static final long DECODED_CACHE_SIZE = 256 * 1024 * 1024;
+
+  // Decoded levels of all fetched images, so that re-fetching an image skips the RPCs and the
+  // conversion of the levels that have already been decoded.
+  private static final Cache<DecodedKey, ArrayImageBuffer> DECODED = CacheBuilder.newBuilder()
+      .concurrencyLevel(1)
+      .maximumWeight(DECODED_CACHE_SIZE)
+      .<DecodedKey, ArrayImageBuffer>weigher((key, image) -> image.getSize())
+      .recordStats()
+      .build();
+
   private final Level[] levels;
 
   public static ListenableFuture<FetchedImage> load(
@@ -121,38 +146,236 @@ public class FetchedImage implements MultiLevelImage {
         levels[index].get();
   }
 
+  @Override
+  public int getLevelWidth(int index) {
+    return (index < 0 || index >= levels.length) ? 0 : levels[index].getWidth();
+  }
+
+  @Override
+  public int getLevelHeight(int index) {
+    return (index < 0 || index >= levels.length) ? 0 : levels[index].getHeight();
+  }
+
   public static ListenableFuture<ImageData> loadLevel(
       ListenableFuture<FetchedImage> futureImage, final int level) {
     return Futures.transformAsync(futureImage, image -> Futures.transform(
         image.getLevel(Math.min(level, image.getLevelCount())), (l) -> l.getData().getImageData()));
   }
 
+  /**
+   * Loads all the given images, batching the requests of all the images into as few round trips
+   * as possible. The returned futures are in the same order as the given paths.
+   */
+  public static List<ListenableFuture<FetchedImage>> loadAll(
+      Client client, List<ListenableFuture<Path.ImageInfo>> imagePaths) {
+    return batch(imagePaths, (unused, paths) -> batch(
+        client.getAll(paths.stream().map(Paths::imageInfo).collect(toList())),
+        (indices, values) -> {
+          List<Images.Format> formats = Lists.newArrayList();
+          List<Path.Any> dataPaths = Lists.newArrayList();
+          for (int i = 0; i < values.size(); i++) {
+            Images.Format format = getFormat(values.get(i).getImageInfo2D());
+            formats.add(format);
+            // The values are of the image info requests that succeeded, in request order.
+            dataPaths.add(imageData(paths.get(indices.get(i)), format.format));
+          }
+          List<ListenableFuture<Value>> data = client.getAll(dataPaths);
+          List<ListenableFuture<FetchedImage>> result = Lists.newArrayList();
+          for (int i = 0; i < data.size(); i++) {
+            Images.Format format = formats.get(i);
+            result.add(Futures.transform(data.get(i),
+                pixelValue -> new FetchedImage(client, format, pixelValue.getImageInfo2D())));
+          }
+          return result;
+        }));
+  }
+
+  /**
+   * Loads the given level of all the given images, fetching the data of all the levels in one
+   * batch. The returned futures are in the same order as the given images.
+   */
+  public static List<ListenableFuture<ImageData>> loadLevels(
+      Client client, List<ListenableFuture<FetchedImage>> futureImages, int level) {
+    return batch(futureImages, (indices, images) -> {
+      List<Level> levels = Lists.newArrayList();
+      List<Path.Any> paths = Lists.newArrayList();
+      int[] ends = new int[images.size()];
+      for (int i = 0; i < ends.length; i++) {
+        FetchedImage image = images.get(i);
+        Level l = image.levels.length == 0 ?
+            Level.EMPTY_LEVEL : image.levels[Math.min(level, image.levels.length - 1)];
+        levels.add(l);
+        if (!l.isLoaded()) {
+          paths.addAll(l.getDataPaths());
+        }
+        ends[i] = paths.size();
+      }
+
+      List<ListenableFuture<Value>> values = client.getAll(paths);
+      List<ListenableFuture<ImageData>> result = Lists.newArrayList();
+      for (int i = 0, start = 0; i < levels.size(); i++) {
+        Level l = levels.get(i);
+        int end = ends[i];
+        result.add(Futures.transform(l.get(values.subList(start, end)),
+            image -> image.getData().getImageData()));
+        start = end;
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Once all the inputs have completed, passes the successful ones, with their indices into the
+   * inputs, to the given batch function and forwards its results. Inputs that failed, fail their
+   * corresponding output.
+   */
+  private static <A, B> List<ListenableFuture<B>> batch(List<ListenableFuture<A>> inputs,
+      BiFunction<List<Integer>, List<A>, List<ListenableFuture<B>>> batch) {
+    List<SettableFuture<B>> outputs = Lists.newArrayList();
+    for (int i = 0; i < inputs.size(); i++) {
+      outputs.add(SettableFuture.create());
+    }
+
+    Futures.successfulAsList(inputs).addListener(() -> {
+      List<Integer> indices = Lists.newArrayList();
+      List<A> values = Lists.newArrayList();
+      List<SettableFuture<B>> pending = Lists.newArrayList();
+      for (int i = 0; i < inputs.size(); i++) {
+        try {
+          values.add(Futures.getDone(inputs.get(i)));
+          indices.add(i);
+          pending.add(outputs.get(i));
+        } catch (ExecutionException e) {
+          outputs.get(i).setException(e.getCause());
+        } catch (CancellationException e) {
+          outputs.get(i).cancel(false);
+        }
+      }
+      if (values.isEmpty()) {
+        return;
+      }
+
+      try {
+        List<ListenableFuture<B>> results = batch.apply(indices, values);
+        for (int i = 0; i < pending.size(); i++) {
+          pending.get(i).setFuture(results.get(i));
+        }
+      } catch (RuntimeException e) {
+        pending.forEach(output -> output.setException(e));
+      }
+    }, directExecutor());
+    return ImmutableList.copyOf(outputs);
+  }
+
+  /**
+   * @return a description of the statistics of the decoded image cache.
+   */
+  public static String getCacheStats() {
+    return "DecodedImages{size=" + DECODED.size() + ", " + DECODED.stats() + "}";
+  }
+
+  /**
+   * Identifies a decoded level by the IDs of its blobs and the format it was decoded into.
+   */
+  private static class DecodedKey {
+    private final Images.Format format;
+    private final List<ID> ids;
+    private final int hashCode;
+
+    public DecodedKey(Images.Format format, List<ID> ids) {
+      this.format = format;
+      this.ids = ids;
+      this.hashCode = Objects.hashCode(format, ids);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof DecodedKey)) {
+        return false;
+      }
+      DecodedKey o = (DecodedKey)obj;
+      return format == o.format && ids.equals(o.ids);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
   private abstract static class Level implements Function<ArrayImageBuffer, Image>, Image {
-    public static final Level EMPTY_LEVEL = new Level(null) {
+    public static final Level EMPTY_LEVEL = new Level(null, null) {
       @Override
       public ListenableFuture<Image> get() {
         return immediateFuture(Image.EMPTY);
       }
 
       @Override
-      protected ListenableFuture<ArrayImageBuffer> doLoad() {
+      public ListenableFuture<Image> get(List<ListenableFuture<Value>> data) {
+        return immediateFuture(Image.EMPTY);
+      }
+
+      @Override
+      public int getWidth() {
+        return 0;
+      }
+
+      @Override
+      public int getHeight() {
+        return 0;
+      }
+
+      @Override
+      protected List<ID> getDataIds() {
+        return Collections.emptyList();
+      }
+
+      @Override
+      protected ArrayImageBuffer convert(List<Value> data) {
         return null;
       }
     };
 
+    private final Client client;
     protected final Images.Format format;
     private ArrayImageBuffer image;
 
-    public Level(Images.Format format) {
+    public Level(Client client, Images.Format format) {
+      this.client = client;
       this.format = format;
     }
 
     public ListenableFuture<Image> get() {
-      ImageBuffer result;
+      return get(null);
+    }
+
+    /**
+     * Returns this level, converting the given, already requested, data if it is not loaded yet.
+     * If the data is {@code null}, it is fetched from the server.
+     */
+    public ListenableFuture<Image> get(List<ListenableFuture<Value>> data) {
+      if (isLoaded()) {
+        return immediateFuture(this);
+      }
+      if (data == null) {
+        data = client.getAll(getDataPaths());
+      }
+      return Futures.transform(Futures.transform(Futures.allAsList(data), this::convert), this);
+    }
+
+    /**
+     * @return whether this level has been decoded, either by this image or by any other image
+     * sharing the same data.
+     */
+    public boolean isLoaded() {
       synchronized (this) {
-        result = image;
+        if (image == null) {
+          image = DECODED.getIfPresent(getKey());
+        }
+        return image != null;
       }
-      return (result == null) ? Futures.transform(doLoad(), this) : immediateFuture(this);
     }
 
     @Override
@@ -160,17 +383,12 @@ public class FetchedImage implements MultiLevelImage {
       synchronized (this) {
         image = input;
       }
+      DECODED.put(getKey(), input);
       return this;
     }
 
-    @Override
-    public int getWidth() {
-      return image.width;
-    }
-
-    @Override
-    public int getHeight() {
-      return image.height;
+    private DecodedKey getKey() {
+      return new DecodedKey(format, getDataIds());
     }
 
     @Override
@@ -178,27 +396,31 @@ public class FetchedImage implements MultiLevelImage {
       return image;
     }
 
-    protected abstract ListenableFuture<ArrayImageBuffer> doLoad();
+    /**
+     * @return the paths of the blobs containing the data of this level.
+     */
+    protected List<Path.Any> getDataPaths() {
+      return getDataIds().stream().map(Paths::blob).collect(toList());
+    }
+
+    /**
+     * @return the IDs of the blobs containing the data of this level.
+     */
+    protected abstract List<ID> getDataIds();
 
-    protected static ArrayImageBuffer convertImage(Info2D info, Images.Format format, byte[] data) {
+    protected abstract ArrayImageBuffer convert(List<Value> data);
+
+    protected static ArrayImageBuffer convertImage(
+        Info2D info, Images.Format format, ByteBuffer data) {
       return format.builder(info.getWidth(), info.getHeight())
           .update(data, 0, 0, info.getWidth(), info.getHeight())
           .build();
     }
 
     protected static ArrayImageBuffer convertImage(
-        Info2D[] infos, Images.Format format, byte[][] data) {
+        Info2D[] infos, Images.Format format, ByteBuffer[] data) {
       assert (infos.length == data.length && infos.length == 6);
-      // Typically these are all the same, but let's be safe.
-      int width = Math.max(
-          Math.max(Math.max(Math.max(Math.max(infos[0].getWidth(), infos[1].getWidth()),
-              infos[2].getWidth()), infos[3].getWidth()), infos[4].getWidth()),
-          infos[5].getWidth());
-      int height =
-          Math.max(Math.max(
-              Math.max(Math.max(Math.max(infos[0].getHeight(), infos[1].getHeight()),
-                  infos[2].getHeight()), infos[3].getHeight()),
-              infos[4].getHeight()), infos[5].getHeight());
+      int width = getFaceWidth(infos), height = getFaceHeight(infos);
 
       // +----+----+----+----+
       // |    | -Y |    |    |
@@ -217,37 +439,60 @@ public class FetchedImage implements MultiLevelImage {
           .flip()
           .build();
     }
+
+    protected static int getFaceWidth(Info2D[] infos) {
+      // Typically these are all the same, but let's be safe.
+      int width = 0;
+      for (Info2D info : infos) {
+        width = Math.max(width, info.getWidth());
+      }
+      return width;
+    }
+
+    protected static int getFaceHeight(Info2D[] infos) {
+      int height = 0;
+      for (Info2D info : infos) {
+        height = Math.max(height, info.getHeight());
+      }
+      return height;
+    }
   }
 
   private static class SingleFacedLevel extends Level {
-    private final Client client;
     protected final Info2D imageInfo;
 
     public SingleFacedLevel(Client client, Images.Format format, Info2D imageInfo) {
-      super(format);
-      this.client = client;
+      super(client, format);
       this.imageInfo = imageInfo;
     }
 
     @Override
-    protected ListenableFuture<ArrayImageBuffer> doLoad() {
-      return Futures.transform(
-          client.get(blob(imageInfo.getData())), new Function<Value, ArrayImageBuffer>() {
-        @Override
-        public ArrayImageBuffer apply(Value data) {
-          return convertImage(imageInfo, format, data.getPod().getUint8Array().toByteArray());
-        }
-      });
+    public int getWidth() {
+      return imageInfo.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+      return imageInfo.getHeight();
+    }
+
+    @Override
+    protected List<ID> getDataIds() {
+      return Collections.singletonList(imageInfo.getData());
+    }
+
+    @Override
+    protected ArrayImageBuffer convert(List<Value> data) {
+      return convertImage(
+          imageInfo, format, data.get(0).getPod().getUint8Array().asReadOnlyByteBuffer());
     }
   }
 
   private static class SixFacedLevel extends Level {
-    private final Client client;
     protected final Info2D[] imageInfos;
 
     public SixFacedLevel(Client client, Images.Format format, CubemapLevel level) {
-      super(format);
-      this.client = client;
+      super(client, format);
       this.imageInfos = new Info2D[] {
         level.getNegativeX(), level.getPositiveX(),
         level.getNegativeY(), level.getPositiveY(),
@@ -256,23 +501,31 @@ public class FetchedImage implements MultiLevelImage {
     }
 
     @Override
-    protected ListenableFuture<ArrayImageBuffer> doLoad() {
-      @SuppressWarnings("unchecked")
-      ListenableFuture<Value>[] futures = new ListenableFuture[imageInfos.length];
-      for (int i = 0; i < imageInfos.length; i++) {
-        futures[i] = client.get(blob(imageInfos[i].getData()));
+    public int getWidth() {
+      return 4 * getFaceWidth(imageInfos);
+    }
+
+    @Override
+    public int getHeight() {
+      return 3 * getFaceHeight(imageInfos);
+    }
+
+    @Override
+    protected List<ID> getDataIds() {
+      List<ID> ids = Lists.newArrayListWithCapacity(imageInfos.length);
+      for (Info2D info : imageInfos) {
+        ids.add(info.getData());
       }
-      return Futures.transform(
-          Futures.allAsList(futures), new Function<List<Value>, ArrayImageBuffer>() {
-        @Override
-        public ArrayImageBuffer apply(List<Value> values) {
-          byte[][] data = new byte[values.size()][];
-          for (int i = 0; i < data.length; i++) {
-            data[i] = values.get(i).getPod().getUint8Array().toByteArray();
-          }
-          return convertImage(imageInfos, format, data);
-        }
-      });
+      return ids;
+    }
+
+    @Override
+    protected ArrayImageBuffer convert(List<Value> values) {
+      ByteBuffer[] data = new ByteBuffer[values.size()];
+      for (int i = 0; i < data.length; i++) {
+        data[i] = values.get(i).getPod().getUint8Array().asReadOnlyByteBuffer();
+      }
+      return convertImage(imageInfos, format, data);
     }
   }
 }
@@ -29,6 +29,7 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.internal.DPIUtil;
 
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 public class Images {
@@ -202,31 +203,31 @@ public class Images {
   public static enum Format {
     Color8(FMT_RGBA_U8_NORM, 4 * 1) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.RGBA8ImageBuffer(width, height, data);
       }
     },
     Depth8(FMT_DEPTH_U8_NORM, 1 *1) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.Luminance8ImageBuffer(width, height, data);
       }
     },
     ColorFloat(FMT_RGBA_FLOAT, 4 * 4) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.RGBAFloatImageBuffer(width, height, data);
       }
     },
     DepthFloat(FMT_DEPTH_FLOAT, 1 * 4) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.LuminanceFloatImageBuffer(width, height, data);
       }
     },
     LuminanceFloat(FMT_LUMINANCE_FLOAT, 1 * 4) {
       @Override
-      protected ArrayImageBuffer build(int width, int height, byte[] data) {
+      protected ArrayImageBuffer build(int width, int height, ByteBuffer data) {
         return new ArrayImageBuffer.LuminanceFloatImageBuffer(width, height, data);
       }
     };
@@ -261,6 +262,6 @@ public class Images {
       };
     }
 
-    protected abstract ArrayImageBuffer build(int width, int height, byte[] data);
+    protected abstract ArrayImageBuffer build(int width, int height, ByteBuffer data);
   }
 }
@@ -23,6 +23,22 @@ public interface MultiLevelImage {
 
   ListenableFuture<Image> getLevel(int index);
 
+  /**
+   * @return the width of the given level, without loading it, or 0 if not known until loaded.
+   */
+  @SuppressWarnings("unused")
+  default int getLevelWidth(int index) {
+    return 0;
+  }
+
+  /**
+   * @return the height of the given level, without loading it, or 0 if not known until loaded.
+   */
+  @SuppressWarnings("unused")
+  default int getLevelHeight(int index) {
+    return 0;
+  }
+
   MultiLevelImage EMPTY = new MultiLevelImage() {
     @Override
     public int getLevelCount() {
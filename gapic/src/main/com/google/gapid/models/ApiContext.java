@@ -130,7 +130,7 @@ public class ApiContext extends CaptureDependentModel<ApiContext.FilteringContex
 
       @Override
       public List<CommandRange> getRanges(AtomList atoms) {
-        return Arrays.asList(CommandRange.newBuilder().setCount(atoms.getAtoms().length).build());
+        return Arrays.asList(CommandRange.newBuilder().setCount(atoms.getAtomCount()).build());
       }
 
       @Override
@@ -15,17 +15,13 @@
  */
 package com.google.gapid.models;
 
-import static com.google.gapid.util.Ranges.command;
 import static com.google.gapid.util.Ranges.commands;
 import static com.google.gapid.util.Ranges.contains;
-import static com.google.gapid.util.Ranges.count;
 import static com.google.gapid.util.Ranges.end;
 import static com.google.gapid.util.Ranges.first;
-import static com.google.gapid.util.Ranges.intersection;
 import static com.google.gapid.util.Ranges.last;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.gapid.models.ApiContext.FilteringContext;
 import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.Service.CommandGroup;
@@ -36,11 +32,9 @@ import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
 import com.google.gapid.service.atom.Atom;
 import com.google.gapid.service.atom.AtomList;
-import com.google.gapid.service.atom.DynamicAtom;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Events.ListenerCollection;
 import com.google.gapid.util.Ranges;
-import com.google.gapid.views.Formatter;
 
 import org.eclipse.jface.viewers.TreePath;
 import org.eclipse.swt.widgets.Shell;
@@ -48,13 +42,12 @@ import org.eclipse.swt.widgets.Shell;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.RandomAccess;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]> {
   private static final Logger LOG = Logger.getLogger(AtomHierarchies.class.getName());
@@ -87,8 +80,14 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
   }
 
   public FilteredGroup getHierarchy(AtomList atoms, FilteringContext context) {
-    return new FilteredGroup(
-        null, atoms, context, firstWithContext(context.getId()).getRoot());
+    return new FilteredGroup(null, atoms, context, getRoot(context));
+  }
+
+  /**
+   * @return the root group of the hierarchy of the given context, as loaded from the server.
+   */
+  public Service.CommandGroup getRoot(FilteringContext context) {
+    return firstWithContext(context.getId()).getRoot();
   }
 
   private Service.Hierarchy firstWithContext(Path.ID contextId) {
@@ -156,7 +155,7 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
         }
       }
 
-      int groupIndex = groupLookup.lookup(idx);
+      int groupIndex = (int)groupLookup.lookup(idx);
       Object child;
       if (groupIndex >= 0) {
         child = new FilteredGroup(this, atoms, context, group.getSubgroups(groupIndex));
@@ -203,52 +202,6 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
           .build();
     }
 
-    // Start is either null, a FilteredGroup or AtomNode that is one of this groups chilren.
-    public CommandRange search(
-        Pattern pattern, Object start, boolean next, boolean searchSiblings) {
-      setupChildLookups();
-
-      int index = 0;
-      if (start != null) {
-        for (; index < children.length; index++) {
-          if (getChild(index) == start) {
-            if (next) {
-              index++;
-            }
-            break;
-          }
-        }
-      }
-
-      for (boolean first = true; index < children.length; index++, first = false) {
-        Object child = getChild(index);
-        CommandRange found = null;
-        if (child instanceof FilteredGroup) {
-          if (next || !first) {
-            found = ((FilteredGroup)child).matches(pattern);
-          }
-          if (found == null) {
-            found = ((FilteredGroup)child).search(pattern, null, false, false);
-          }
-        } else if (child instanceof AtomNode) {
-          found = ((AtomNode)child).matches(pattern);
-        }
-        if (found != null) {
-          return found;
-        }
-      }
-
-      // Search my parent, since nothing was found.
-      if (searchSiblings && parent != null) {
-        return parent.search(pattern, this, true, true);
-      }
-      return null;
-    }
-
-    private CommandRange matches(Pattern pattern) {
-      return pattern.matcher(group.getName()).find() ? group.getRange() : null;
-    }
-
     public TreePath getTreePathTo(CommandRange range) {
       List<Object> segments = Lists.newArrayList();
       if (getTreePathTo(range, segments)) {
@@ -291,62 +244,21 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
 
     private void setupChildLookups() {
       if (children == null) {
-        Map<CommandRange, Integer> atomMap = Maps.newHashMap();
-        Map<CommandRange, Integer> groupMap = Maps.newHashMap();
-        List<CommandRange> atomRanges = Lists.newArrayList();
-        List<CommandRange> groupRanges = Lists.newArrayList();
-        int count = 0;
+        ChildBuilder builder = new ChildBuilder(context.getRanges(atoms), first(group.getRange()));
         long next = first(group.getRange());
         for (int groupIndex = 0; groupIndex < group.getSubgroupsCount(); groupIndex++) {
           Service.CommandGroup subGroup = group.getSubgroups(groupIndex);
-          CommandRange.Builder range = CommandRange.newBuilder()
-              .setFirst(next)
-              .setCount(first(subGroup.getRange()) - next);
-          if (range.getCount() > 0) {
-            List<CommandRange> intersection = intersection(context.getRanges(atoms), range);
-            for (CommandRange r : intersection) {
-              CommandRange key = commands(count, count(r));
-              atomMap.put(key, (int)first(r));
-              atomRanges.add(key);
-              count += count(r);
-            }
-          }
-
+          builder.addAtoms(next, first(subGroup.getRange()));
           if (context.contains(subGroup.getRange())) {
-            CommandRange lastRange = groupRanges.isEmpty() ?
-                null : groupRanges.get(groupRanges.size() - 1);
-            if (lastRange != null && end(lastRange) == count &&
-                (groupMap.get(lastRange) + lastRange.getCount()) == groupIndex) {
-              long orgGroupIndex = groupMap.remove(lastRange);
-              groupRanges.remove(groupRanges.size() - 1);
-              lastRange = lastRange.toBuilder().setCount(count(lastRange) + 1).build(); // TODO
-              groupMap.put(lastRange, (int)orgGroupIndex);
-              groupRanges.add(lastRange);
-            } else {
-              CommandRange newRange = command(count);
-              groupMap.put(newRange, groupIndex);
-              groupRanges.add(newRange);
-            }
-            count++;
+            builder.addGroup(groupIndex);
           }
           next = end(subGroup.getRange());
         }
+        builder.addAtoms(next, end(group.getRange()));
 
-        CommandRange.Builder range = CommandRange.newBuilder()
-            .setFirst(next)
-            .setCount(end(group.getRange()) - next);
-        if (range.getCount() > 0) {
-          List<CommandRange> intersection = intersection(context.getRanges(atoms), range);
-          for (CommandRange r : intersection) {
-            CommandRange key = commands(count, count(r));
-            atomMap.put(key, (int)first(r));
-            atomRanges.add(key);
-            count += count(r);
-          }
-        }
-
-        groupLookup = Lookup.create(groupRanges, groupMap);
-        atomLookup = Lookup.create(atomRanges, atomMap);
+        int count = (int)builder.count;
+        groupLookup = builder.groups.build();
+        atomLookup = builder.atoms.build();
         if (count >= SPLIT_THRESHOLD) {
           split(count);
         } else {
@@ -365,7 +277,7 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
         List<Service.CommandGroup> subGroups = subGroupLookup.map(group.getSubgroupsList());
 
         int childCount = Math.min(count - idx, SUBGROUP_SIZE);
-        int subGroupIdx = subGroupLookup.lookup(childCount - 1);
+        int subGroupIdx = (int)subGroupLookup.lookup(childCount - 1);
         long newNext = (subGroupIdx < 0) ? subAtomLookup.lookup(childCount - 1) + 1 :
             end(subGroups.get(subGroupIdx).getRange());
 
@@ -389,10 +301,49 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
       atomLookup = Lookup.EMPTY;
     }
 
+    /**
+     * Assigns child indices to the atoms and subgroups of a group, in order, in a single pass.
+     */
+    private static class ChildBuilder {
+      public final RangedLookup.Builder groups = new RangedLookup.Builder();
+      public final RangedLookup.Builder atoms = new RangedLookup.Builder();
+      public long count = 0;
+      private final List<CommandRange> ranges;
+      // The first range of the context that may overlap the next atoms added.
+      private int rangeIndex;
+
+      public ChildBuilder(List<CommandRange> ranges, long first) {
+        this.ranges = ranges;
+        int index = Ranges.contains(ranges, first);
+        this.rangeIndex = (index < 0) ? -index - 1 : index;
+      }
+
+      /**
+       * Adds the atoms in [from, to) that are part of the context. Must be called with increasing
+       * atom indices, so that the context ranges can be walked rather than searched.
+       */
+      public void addAtoms(long from, long to) {
+        while (rangeIndex < ranges.size() && end(ranges.get(rangeIndex)) <= from) {
+          rangeIndex++;
+        }
+        for (int i = rangeIndex; i < ranges.size() && first(ranges.get(i)) < to; i++) {
+          CommandRange range = ranges.get(i);
+          long start = Math.max(from, first(range)), length = Math.min(to, end(range)) - start;
+          atoms.add(count, start, length);
+          count += length;
+        }
+      }
+
+      public void addGroup(int groupIndex) {
+        groups.add(count, groupIndex, 1);
+        count++;
+      }
+    }
+
     private static interface Lookup {
       public static final Lookup EMPTY = new Lookup() {
         @Override
-        public int lookup(int idx) {
+        public long lookup(int idx) {
           return -1;
         }
 
@@ -407,7 +358,10 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
         }
       };
 
-      public int lookup(int idx);
+      /**
+       * @return the subgroup or atom index of the given child, or -1 if the child is not one.
+       */
+      public long lookup(int idx);
 
       @SuppressWarnings("unused")
       public default Lookup subrange(int from, int to, boolean computeOffset) {
@@ -418,38 +372,54 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
       public default <T> List<T> map(List<T> source) {
         throw new UnsupportedOperationException();
       }
-
-      public static Lookup create(List<CommandRange> ranges, Map<CommandRange, Integer> map) {
-        return ranges.isEmpty() ? EMPTY :
-            new RangedLookup(ranges.toArray(new CommandRange[ranges.size()]), map, 0);
-      }
     }
 
+    /**
+     * {@link Lookup} of runs of consecutive children that map to consecutive values, stored in
+     * parallel, primitive arrays sorted by child index and binary searched.
+     */
     private static class RangedLookup implements Lookup {
-      private final CommandRange[] ranges;
-      private final Map<CommandRange, Integer> map;
-      private final int offset;
-
-      public RangedLookup(CommandRange[] ranges, Map<CommandRange, Integer> map, int offset) {
-        assert ranges.length == map.size();
-        this.ranges = ranges;
-        this.map = map;
+      private final long[] firsts; // First child index of each run.
+      private final long[] counts; // Number of children in each run.
+      private final long[] values; // Value of the first child of each run.
+      private final int size;
+      private final long offset;
+
+      public RangedLookup(long[] firsts, long[] counts, long[] values, int size, long offset) {
+        this.firsts = firsts;
+        this.counts = counts;
+        this.values = values;
+        this.size = size;
         this.offset = offset;
       }
 
       @Override
-      public int lookup(int idx) {
-        int result = contains(ranges, idx);
-        if (result >= 0) {
-          CommandRange groupIndexRange = ranges[result];
-          return offset + map.get(groupIndexRange) + (idx - (int)first(groupIndexRange));
+      public long lookup(int idx) {
+        int run = find(idx);
+        return (run >= 0) ? offset + values[run] + (idx - firsts[run]) : -1;
+      }
+
+      /**
+       * @return the run containing the given child, or -(insertion point) - 1, if none does.
+       */
+      private int find(long idx) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+          int mid = (low + high) >>> 1;
+          if (idx < firsts[mid]) {
+            high = mid - 1;
+          } else if (idx >= firsts[mid] + counts[mid]) {
+            low = mid + 1;
+          } else {
+            return mid;
+          }
         }
-        return -1;
+        return -(low + 1);
       }
 
       @Override
       public Lookup subrange(int from, int to, boolean computeOffset) {
-        int start = contains(ranges, from), end = contains(ranges, to);
+        int start = find(from), end = find(to);
         if (start < 0) {
           start = (-start - 1);
         }
@@ -460,28 +430,63 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
         if (end < start) {
           return EMPTY;
         }
-        CommandRange[] newRanges = new CommandRange[(end - start) + 1];
-        Map<CommandRange, Integer> newMap = Maps.newHashMap();
-        for (int i = 0; i < newRanges.length; i++) {
-          CommandRange oldRange = ranges[start + i];
-          long startOffset = first(oldRange) - from;
+        int newSize = (end - start) + 1;
+        long[] newFirsts = new long[newSize], newCounts = new long[newSize];
+        long[] newValues = new long[newSize];
+        for (int i = 0; i < newSize; i++) {
+          int run = start + i;
+          long startOffset = firsts[run] - from;
           long newStart = Math.max(0, startOffset);
-          long newEnd = Math.min(to - from + 1, end(oldRange) - from);
-          CommandRange newRange = commands(newStart, newEnd - newStart);
-          newRanges[i] = newRange;
-          newMap.put(newRange, map.get(oldRange) - (int)Math.min(0, startOffset));
+          long newEnd = Math.min(to - from + 1, firsts[run] + counts[run] - from);
+          newFirsts[i] = newStart;
+          newCounts[i] = newEnd - newStart;
+          newValues[i] = values[run] - Math.min(0, startOffset);
         }
 
-        return new RangedLookup(
-            newRanges, newMap, computeOffset ? -newMap.get(newRanges[0]) : offset);
+        return new RangedLookup(newFirsts, newCounts, newValues, newSize,
+            computeOffset ? -newValues[0] : offset);
       }
 
       @Override
       public <T> List<T> map(List<T> source) {
-        CommandRange last = ranges[ranges.length - 1];
-        int end = map.get(last) + (int)last.getCount();
-        int start = map.get(ranges[0]);
-        return source.subList(start, end);
+        int last = size - 1;
+        return source.subList((int)values[0], (int)(values[last] + counts[last]));
+      }
+
+      /**
+       * Builds a {@link RangedLookup} from runs added in increasing child order, merging runs
+       * that continue the previous one.
+       */
+      public static class Builder {
+        private long[] firsts = new long[4], counts = new long[4], values = new long[4];
+        private int size = 0;
+
+        public void add(long first, long value, long count) {
+          if (count <= 0) {
+            return;
+          }
+          int last = size - 1;
+          if (last >= 0 && firsts[last] + counts[last] == first &&
+              values[last] + counts[last] == value) {
+            counts[last] += count;
+            return;
+          }
+
+          if (size == firsts.length) {
+            int capacity = 2 * size;
+            firsts = Arrays.copyOf(firsts, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            values = Arrays.copyOf(values, capacity);
+          }
+          firsts[size] = first;
+          counts[size] = count;
+          values[size] = value;
+          size++;
+        }
+
+        public Lookup build() {
+          return (size == 0) ? EMPTY : new RangedLookup(firsts, counts, values, size, 0);
+        }
       }
     }
 
@@ -493,7 +498,7 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
       }
 
       @Override
-      public int lookup(int idx) {
+      public long lookup(int idx) {
         return contains(range, idx) ? idx : -1;
       }
     }
@@ -527,10 +532,5 @@ public class AtomHierarchies extends CaptureDependentModel<Service.Hierarchy[]>
       this.index = index;
       this.atom = atom;
     }
-
-    public CommandRange matches(Pattern pattern) {
-      return (pattern.matcher(Formatter.toString((DynamicAtom)atom)).find()) ?
-          Ranges.command(index) : null;
-    }
   }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.models;
+
+import static com.google.gapid.util.Ranges.command;
+import static com.google.gapid.util.Ranges.count;
+import static com.google.gapid.util.Ranges.first;
+import static java.util.logging.Level.FINE;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gapid.models.ApiContext.FilteringContext;
+import com.google.gapid.proto.service.Service.CommandGroup;
+import com.google.gapid.proto.service.Service.CommandRange;
+import com.google.gapid.util.Scheduler;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A search of the atoms and groups of an atom hierarchy for a pattern, run in the background.
+ * Atoms are searched in windows, starting at the position of the first request, with each window
+ * split across a fork/join pool. Requests for the next or previous match are answered as soon as
+ * enough atoms have been searched to know the answer, and the matches found are kept, so later
+ * requests are answered from them. If the text of the search is {@link AtomTextIndex#isIndexable
+ * indexable}, the matching atoms are looked up in the text index, rather than formatted and
+ * matched one by one.
+ */
+public class AtomSearch {
+  private static final Logger LOG = Logger.getLogger(AtomSearch.class.getName());
+  private static final int WINDOW_SIZE = 64 * 1024;
+  private static final int LEAF_SIZE = 1024;
+
+  // The order of groups and atoms in the tree: by first atom, enclosing groups first.
+  private static final Comparator<CommandRange> TREE_ORDER = (a, b) -> {
+    int result = Long.compare(first(a), first(b));
+    return (result != 0) ? result : Long.compare(count(b), count(a));
+  };
+
+  private final FormattedAtoms atoms;
+  private final AtomTextIndex index;
+  private final FilteringContext context;
+  private final CommandGroup root;
+  private final String text;
+  private final boolean regex;
+  private final Pattern pattern;
+  private final long atomCount;
+  private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+  // All the fields below are guarded by this.
+  private final TreeSet<CommandRange> matches = new TreeSet<CommandRange>(TREE_ORDER);
+  private final List<Request> pending = Lists.newArrayList();
+  private boolean started = false;
+  private long scanStart;
+  private boolean scanForward;
+  private long scanned = 0;
+  private boolean done = false;
+
+  public AtomSearch(FormattedAtoms atoms, AtomTextIndex index, FilteringContext context,
+      CommandGroup root, String text, boolean regex, Pattern pattern) {
+    this.atoms = atoms;
+    this.index = index;
+    this.context = context;
+    this.root = root;
+    this.text = text;
+    this.regex = regex;
+    this.pattern = pattern;
+    this.atomCount = atoms.getAtomCount();
+  }
+
+  public boolean isSearchFor(String searchText, boolean searchRegex) {
+    return text.equals(searchText) && regex == searchRegex;
+  }
+
+  /**
+   * Finds the match following, or preceding, the given range of the selected group or atom in the
+   * tree, wrapping around. If nothing is selected, the first, or last, match is found. The returned
+   * future resolves to {@code null} if there are no matches.
+   */
+  public ListenableFuture<CommandRange> find(CommandRange from, boolean forward) {
+    Request request = new Request(from, forward);
+    synchronized (this) {
+      if (!started) {
+        started = true;
+        scanStart = request.position;
+        scanForward = forward;
+        Scheduler.EXECUTOR.execute(this::run);
+      }
+      if (!resolve(request)) {
+        pending.add(request);
+      }
+    }
+    return request.result;
+  }
+
+  public void cancel() {
+    cancelled.set(true);
+  }
+
+  public synchronized int getMatchCount() {
+    return matches.size();
+  }
+
+  private void run() {
+    long start = System.nanoTime();
+    List<CommandRange> groups = Lists.newArrayList();
+    for (CommandGroup group : root.getSubgroupsList()) {
+      findGroups(group, groups);
+    }
+    synchronized (this) {
+      matches.addAll(groups);
+    }
+
+    // Regular expressions consisting only of token characters match literally.
+    BitSet candidates = (index != null && AtomTextIndex.isIndexable(text)) ?
+        index.findAtoms(text) : null;
+    for (long offset = 0; offset < atomCount && !cancelled.get(); offset += WINDOW_SIZE) {
+      long end = Math.min(atomCount, offset + WINDOW_SIZE);
+      List<CommandRange> found =
+          ForkJoinPool.commonPool().invoke(new Scan(candidates, offset, end));
+      synchronized (this) {
+        matches.addAll(found);
+        scanned = end;
+        resolvePending();
+      }
+    }
+
+    synchronized (this) {
+      if (cancelled.get()) {
+        pending.forEach(request -> request.result.cancel(false));
+        pending.clear();
+      } else {
+        done = true;
+        resolvePending();
+        LOG.log(FINE, "Searched {0} atoms for {1} in {2}ms, {3} matches", new Object[] {
+            atomCount, pattern, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            matches.size()
+        });
+      }
+    }
+  }
+
+  private void findGroups(CommandGroup group, List<CommandRange> result) {
+    if (!context.contains(group.getRange())) {
+      return;
+    }
+    if (pattern.matcher(group.getName()).find()) {
+      result.add(group.getRange());
+    }
+    for (CommandGroup child : group.getSubgroupsList()) {
+      findGroups(child, result);
+    }
+  }
+
+  private synchronized void resolvePending() {
+    for (Iterator<Request> it = pending.iterator(); it.hasNext(); ) {
+      Request request = it.next();
+      if (request.result.isDone() || resolve(request)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Resolves the given request, if the matches found so far determine its answer.
+   */
+  private synchronized boolean resolve(Request request) {
+    CommandRange candidate;
+    boolean wrapped = false;
+    if (request.from == null) {
+      candidate = matches.isEmpty() ? null : (request.forward ? matches.first() : matches.last());
+    } else {
+      candidate = request.forward ? matches.higher(request.from) : matches.lower(request.from);
+      if (candidate == null && !matches.isEmpty()) {
+        wrapped = true;
+        candidate = request.forward ? matches.first() : matches.last();
+      }
+    }
+
+    if (!done) {
+      if (candidate == null || request.forward != scanForward) {
+        return false;
+      }
+      // All the atoms between the request's position and the candidate need to have been scanned.
+      long distance = request.forward ?
+          first(candidate) - request.position : request.position - first(candidate);
+      if (wrapped) {
+        distance += atomCount;
+      }
+      long position = scanDistance(request.position);
+      if (position >= scanned || position + distance >= scanned) {
+        return false;
+      }
+    }
+    request.result.set(candidate);
+    return true;
+  }
+
+  /**
+   * @return the number of atoms scanned before the given atom.
+   */
+  private long scanDistance(long atom) {
+    long distance = scanForward ? atom - scanStart : scanStart - atom;
+    return (distance < 0) ? distance + atomCount : distance;
+  }
+
+  private long atomAt(long offset) {
+    long atom = scanForward ? scanStart + offset : scanStart - offset;
+    return (atom < 0) ? atom + atomCount : (atom >= atomCount) ? atom - atomCount : atom;
+  }
+
+  private class Request {
+    public final CommandRange from;
+    public final boolean forward;
+    public final long position;
+    public final SettableFuture<CommandRange> result = SettableFuture.create();
+
+    public Request(CommandRange from, boolean forward) {
+      this.from = from;
+      this.forward = forward;
+      this.position = (from != null) ? first(from) : forward ? 0 : Math.max(0, atomCount - 1);
+    }
+  }
+
+  /**
+   * Matches the atoms at the given range of scan offsets, splitting the range across the pool.
+   */
+  private class Scan extends RecursiveTask<List<CommandRange>> {
+    private final BitSet candidates;
+    private final long from, to;
+
+    public Scan(BitSet candidates, long from, long to) {
+      this.candidates = candidates;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<CommandRange> compute() {
+      if (to - from > LEAF_SIZE) {
+        long mid = (from + to) >>> 1;
+        Scan left = new Scan(candidates, from, mid);
+        left.fork();
+        List<CommandRange> right = new Scan(candidates, mid, to).compute();
+        List<CommandRange> result = left.join();
+        if (result.isEmpty()) {
+          return right;
+        }
+        result.addAll(right);
+        return result;
+      }
+
+      if (cancelled.get()) {
+        return Collections.emptyList();
+      }
+      List<CommandRange> result = Lists.newArrayList();
+      if (candidates != null) {
+        for (long offset = from; offset < to; offset++) {
+          long atom = atomAt(offset);
+          if (candidates.get((int)atom) && context.contains(atom)) {
+            result.add(command(atom));
+          }
+        }
+        return result;
+      }
+
+      String[] strings = atoms.getStrings();
+      for (long offset = from; offset < to; offset++) {
+        long atom = atomAt(offset);
+        if (context.contains(atom) && pattern.matcher(atoms.get(strings, atom)).find()) {
+          result.add(command(atom));
+        }
+      }
+      return result;
+    }
+  }
+}
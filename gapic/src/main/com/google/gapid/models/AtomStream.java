@@ -18,12 +18,20 @@ package com.google.gapid.models;
 import static com.google.gapid.util.Ranges.commands;
 import static com.google.gapid.util.Ranges.first;
 import static com.google.gapid.util.Ranges.last;
+import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.FINE;
 
 import com.google.common.base.Objects;
 import com.google.gapid.models.ApiContext.FilteringContext;
 import com.google.gapid.proto.service.Service.CommandRange;
 import com.google.gapid.proto.service.Service.Value;
 import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.rpclib.binary.BinaryClass;
+import com.google.gapid.rpclib.binary.BinaryObject;
+import com.google.gapid.rpclib.binary.Decoder;
+import com.google.gapid.rpclib.binary.Encoder;
+import com.google.gapid.rpclib.schema.Entity;
 import com.google.gapid.server.Client;
 import com.google.gapid.service.atom.Atom;
 import com.google.gapid.service.atom.AtomList;
@@ -34,18 +42,35 @@ import com.google.gapid.util.Events;
 import com.google.gapid.util.Events.ListenerCollection;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.Paths;
+import com.google.gapid.util.Scheduler;
 
 import org.eclipse.swt.widgets.Shell;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 public class AtomStream extends CaptureDependentModel<AtomList> {
   private static final Logger LOG = Logger.getLogger(AtomStream.class.getName());
+  private static final long PROGRESS_INTERVAL_MS = 250;
 
   private final ApiContext context;
   private final ListenerCollection<Listener> listeners = Events.listeners(Listener.class);
   private CommandRange selection;
+  // The atoms decoded so far, while the atom list is being streamed in.
+  private AtomList partial;
+  private int partialCount;
+  private volatile int generation;
+  // Index built while decoding the atoms on the RPC thread, picked up by update.
+  private volatile AtomIndex decodedIndex;
+  // Store of the encoded atoms, replacing the decoded atoms of the list in update.
+  private volatile CompactAtomStore decodedStore;
+  private AtomIndex index = AtomIndex.EMPTY;
+  private FormattedAtoms formatted;
+  // Built in the background once the atoms are loaded, null until then.
+  private volatile AtomTextIndex textIndex;
+  private volatile ObservationIndex observationIndex;
 
   public AtomStream(Shell shell, Client client, Capture capture, ApiContext context) {
     super(LOG, shell, client, capture);
@@ -56,6 +81,13 @@ public class AtomStream extends CaptureDependentModel<AtomList> {
   protected void reset() {
     super.reset();
     selection = null;
+    partial = null;
+    partialCount = 0;
+    generation++;
+    index = AtomIndex.EMPTY;
+    formatted = null;
+    textIndex = null;
+    observationIndex = null;
   }
 
   @Override
@@ -68,7 +100,85 @@ public class AtomStream extends CaptureDependentModel<AtomList> {
 
   @Override
   protected AtomList unbox(Value value) throws IOException {
-    return Client.decode(value.getObject());
+    int loadGeneration = generation;
+    ByteBuffer data = CompactAtomStore.wrap(value.getObject().getData());
+    Decoder decoder = new Decoder(data.duplicate());
+    CompactAtomStore.Builder store = new CompactAtomStore.Builder(data);
+    StreamingKlass klass = new StreamingKlass(store,
+        (atoms, count) -> scheduleIfNotDisposed(shell, () -> {
+      if (loadGeneration == generation && !isLoaded()) {
+        partial = atoms;
+        partialCount = count;
+        listeners.fire().onAtomsLoading(count, atoms.getAtomCount());
+      }
+    }));
+    decoder.register(klass);
+    AtomList result = (AtomList)decoder.object();
+    decodedIndex = klass.getIndex(result);
+    decodedStore = store.build(result, decoder);
+    LOG.log(FINE, "Decoded {0}", decodedStore);
+    return result;
+  }
+
+  @Override
+  protected void update(AtomList newData) {
+    partial = null;
+    partialCount = 0;
+    AtomIndex decoded = decodedIndex;
+    CompactAtomStore store = decodedStore;
+    decodedIndex = null;
+    decodedStore = null;
+    textIndex = null;
+    observationIndex = null;
+    if (newData == null) {
+      index = AtomIndex.EMPTY;
+      formatted = null;
+    } else {
+      index = (decoded != null && decoded.atoms == newData) ? decoded : AtomIndex.build(newData);
+      formatted = new FormattedAtoms(newData);
+      buildIndexes(formatted,
+          (store != null && store.atoms == newData && newData.getAtoms() != null) ? store : null);
+    }
+    super.update(newData);
+  }
+
+  /**
+   * Builds the text and observation indexes of the given atoms in the background. The indexes are
+   * built from the decoded atoms, which are only then dropped in favor of the given store, if any,
+   * so that building the indexes neither decodes all the atoms again, nor evicts the recently
+   * accessed atoms from the store.
+   */
+  private void buildIndexes(FormattedAtoms atoms, CompactAtomStore store) {
+    int buildGeneration = generation;
+    Scheduler.EXECUTOR.execute(() -> {
+      long start = System.nanoTime();
+      AtomTextIndex text = AtomTextIndex.build(atoms, () -> buildGeneration != generation);
+      if (text == null || buildGeneration != generation) {
+        return;
+      }
+      textIndex = text;
+      LOG.log(FINE, "Built {0} in {1}ms",
+          new Object[] { text, NANOSECONDS.toMillis(System.nanoTime() - start) });
+
+      start = System.nanoTime();
+      ObservationIndex observations =
+          ObservationIndex.build(atoms.atoms, () -> buildGeneration != generation);
+      if (observations == null || buildGeneration != generation) {
+        return;
+      }
+      observationIndex = observations;
+      LOG.log(FINE, "Built {0} in {1}ms",
+          new Object[] { observations, NANOSECONDS.toMillis(System.nanoTime() - start) });
+
+      if (store != null) {
+        scheduleIfNotDisposed(shell, () -> {
+          if (buildGeneration == generation) {
+            // Drop the decoded atoms, they are decoded again from the store as they are accessed.
+            atoms.atoms.setStore(store);
+          }
+        });
+      }
+    });
   }
 
   @Override
@@ -77,31 +187,69 @@ public class AtomStream extends CaptureDependentModel<AtomList> {
   }
 
   public int getAtomCount() {
-    return getData().getAtoms().length;
+    return getData().getAtomCount();
+  }
+
+  /**
+   * @return the number of atoms that can be accessed via {@link #getAtom(long)}. While the atoms
+   * are being streamed in, this is the number of atoms decoded so far.
+   */
+  public int getLoadedAtomCount() {
+    if (isLoaded()) {
+      return getAtomCount();
+    }
+    return (partial == null) ? 0 : partialCount;
+  }
+
+  /**
+   * @return the atom list, which may only be partially decoded, if the atoms are still being
+   * streamed in. Only the first {@link #getLoadedAtomCount()} atoms of a partial list are valid.
+   */
+  public AtomList getLoadedData() {
+    return isLoaded() ? getData() : partial;
+  }
+
+  /**
+   * @return the formatted strings of the loaded atoms, or {@code null} if not loaded.
+   */
+  public FormattedAtoms getFormattedAtoms() {
+    return formatted;
+  }
+
+  /**
+   * @return the text index of the loaded atoms, or {@code null} if it has not been built yet.
+   */
+  public AtomTextIndex getTextIndex() {
+    AtomTextIndex result = textIndex;
+    return (result != null && result.atoms == getData()) ? result : null;
+  }
+
+  /**
+   * @return the index of the memory observations of the loaded atoms, or {@code null} if it has
+   * not been built yet.
+   */
+  public ObservationIndex getObservationIndex() {
+    ObservationIndex result = observationIndex;
+    return (result != null && result.atoms == getData()) ? result : null;
   }
 
   public Atom getAtom(long index) {
-    return getData().get(index);
+    return getLoadedData().get(index);
   }
 
-  public int getStartOfFrame(long index) {
-    Atom[] atoms = getData().getAtoms();
-    for (int i = (int)index; i > 0; i--) {
-      if (atoms[i - 1].isEndOfFrame()) {
-        return i;
-      }
-    }
-    return 0;
+  public int getStartOfFrame(long atomIndex) {
+    long[] frames = index.endOfFrames;
+    int pos = floor(frames, atomIndex - 1);
+    return (pos < 0) ? 0 : (int)frames[pos] + 1;
   }
 
-  public int getEndOfFrame(long index) {
-    Atom[] atoms = getData().getAtoms();
-    for (int i = (int)index; i < atoms.length; i++) {
-      if (atoms[i].isEndOfFrame()) {
-        return i;
-      }
+  public int getEndOfFrame(long atomIndex) {
+    long[] frames = index.endOfFrames;
+    int pos = floor(frames, atomIndex);
+    if (pos >= 0 && frames[pos] == atomIndex) {
+      return (int)atomIndex;
     }
-    return atoms.length - 1;
+    return (pos + 1 < frames.length) ? (int)frames[pos + 1] : getAtomCount() - 1;
   }
 
   public CommandRange getSelectedAtoms() {
@@ -134,17 +282,28 @@ public class AtomStream extends CaptureDependentModel<AtomList> {
     }
 
     FilteringContext selectedContext = context.getSelectedContext();
-    for (long index = last(selection); index >= first(selection); index--) {
-      if (selectedContext.contains(index) && getData().get(index).isDrawCall()) {
+    long[] drawCalls = index.drawCalls;
+    for (int pos = floor(drawCalls, last(selection));
+        pos >= 0 && drawCalls[pos] >= first(selection); pos--) {
+      if (selectedContext.contains(drawCalls[pos])) {
         return Path.Command.newBuilder()
             .setCommands(getPath().getCommands())
-            .setIndex(index)
+            .setIndex(drawCalls[pos])
             .build();
       }
     }
     return null;
   }
 
+  /**
+   * @return the position of the largest value in the sorted array that is less than or equal to
+   * the given value, or -1 if there is no such value.
+   */
+  private static int floor(long[] sorted, long value) {
+    int pos = Arrays.binarySearch(sorted, value);
+    return (pos >= 0) ? pos : -pos - 2;
+  }
+
   public TypedObservation[] getObservations(long index) {
     Atom atom = getAtom(index);
     if (atom.getObservationCount() == 0) {
@@ -182,6 +341,14 @@ public class AtomStream extends CaptureDependentModel<AtomList> {
       this.observation = observation;
     }
 
+    public boolean isRead() {
+      return read;
+    }
+
+    public MemoryRange getRange() {
+      return observation.getRange();
+    }
+
     public Path.Memory getPath(AtomStream atoms) {
       return Paths.memoryAfter(atoms.getPath(), index, 0, observation.getRange()).getMemory();
     }
@@ -198,6 +365,117 @@ public class AtomStream extends CaptureDependentModel<AtomList> {
     }
   }
 
+  /**
+   * {@link BinaryClass} decoding an {@link AtomList} that periodically hands the atoms decoded so
+   * far to a {@link ProgressListener}, so the atoms can be shown while the rest are decoded.
+   */
+  private static class StreamingKlass implements BinaryClass {
+    private final CompactAtomStore.Builder store;
+    private final ProgressListener listener;
+    private final AtomIndex.Builder index = new AtomIndex.Builder();
+
+    public StreamingKlass(CompactAtomStore.Builder store, ProgressListener listener) {
+      this.store = store;
+      this.listener = listener;
+    }
+
+    public AtomIndex getIndex(AtomList atoms) {
+      return index.build(atoms);
+    }
+
+    @Override
+    public Entity entity() {
+      return AtomList.Klass.INSTANCE.entity();
+    }
+
+    @Override
+    public BinaryObject create() {
+      return AtomList.Klass.INSTANCE.create();
+    }
+
+    @Override
+    public void encode(Encoder e, BinaryObject obj) throws IOException {
+      AtomList.Klass.INSTANCE.encode(e, obj);
+    }
+
+    @Override
+    public void decode(Decoder d, BinaryObject obj) throws IOException {
+      AtomList list = (AtomList)obj;
+      Atom[] atoms = new Atom[d.uint32()];
+      list.setAtoms(atoms);
+      store.start(atoms.length);
+
+      long lastProgress = System.currentTimeMillis();
+      for (int i = 0; i < atoms.length; i++) {
+        store.add(d);
+        atoms[i] = Atom.wrap(d.variant());
+        index.add(i, atoms[i]);
+        if ((i & 0x3ff) == 0x3ff && i + 1 < atoms.length &&
+            System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL_MS) {
+          listener.onProgress(list, i + 1);
+          lastProgress = System.currentTimeMillis();
+        }
+      }
+    }
+
+    public interface ProgressListener {
+      public void onProgress(AtomList atoms, int count);
+    }
+  }
+
+  /**
+   * Sorted indices of the end of frame and draw call atoms, used to find frame boundaries and
+   * draw calls without scanning the atoms.
+   */
+  private static class AtomIndex {
+    public static final AtomIndex EMPTY = new AtomIndex(null, new long[0], new long[0]);
+
+    public final AtomList atoms;
+    public final long[] endOfFrames;
+    public final long[] drawCalls;
+
+    public AtomIndex(AtomList atoms, long[] endOfFrames, long[] drawCalls) {
+      this.atoms = atoms;
+      this.endOfFrames = endOfFrames;
+      this.drawCalls = drawCalls;
+    }
+
+    public static AtomIndex build(AtomList atoms) {
+      Builder builder = new Builder();
+      for (int i = 0; i < atoms.getAtomCount(); i++) {
+        builder.add(i, atoms.get(i));
+      }
+      return builder.build(atoms);
+    }
+
+    public static class Builder {
+      private long[] endOfFrames = new long[64];
+      private int endOfFrameCount = 0;
+      private long[] drawCalls = new long[64];
+      private int drawCallCount = 0;
+
+      public void add(long index, Atom atom) {
+        if (atom.isEndOfFrame()) {
+          if (endOfFrameCount == endOfFrames.length) {
+            endOfFrames = Arrays.copyOf(endOfFrames, endOfFrames.length * 2);
+          }
+          endOfFrames[endOfFrameCount++] = index;
+        }
+        if (atom.isDrawCall()) {
+          if (drawCallCount == drawCalls.length) {
+            drawCalls = Arrays.copyOf(drawCalls, drawCalls.length * 2);
+          }
+          drawCalls[drawCallCount++] = index;
+        }
+      }
+
+      public AtomIndex build(AtomList atoms) {
+        return new AtomIndex(atoms,
+            Arrays.copyOf(endOfFrames, endOfFrameCount), Arrays.copyOf(drawCalls, drawCallCount));
+      }
+    }
+  }
+
   public void addListener(Listener listener) {
     listeners.addListener(listener);
   }
@@ -207,6 +485,13 @@ public class AtomStream extends CaptureDependentModel<AtomList> {
   }
 
   public interface Listener extends Events.Listener {
+    /**
+     * Event indicating that the first {@code loaded} of the {@code total} atoms have been decoded,
+     * while the remaining atoms are still being streamed in.
+     */
+    @SuppressWarnings("unused")
+    public default void onAtomsLoading(int loaded, int total) { /* empty */ }
+
     public default void onAtomsLoaded() { /* empty */ }
     @SuppressWarnings("unused")
     public default void onAtomsSelected(CommandRange range) { /* empty */ }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.models;
+
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.Maps;
+import com.google.gapid.service.atom.AtomList;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * An inverted index of the tokens of the formatted atoms of an atom list. A token is a run of
+ * ASCII letters, digits and underscores, lower cased, such as a command name, a constant name or
+ * an argument value. Each token maps to the sorted indices of the atoms containing it, stored
+ * delta and varint encoded.
+ *
+ * <p>As a token is a maximal run of such characters, any case insensitive occurrence of a text
+ * consisting only of such characters within a formatted atom is within one of its tokens. Thus the
+ * atoms containing such a text are exactly the atoms of the tokens containing it.
+ */
+public class AtomTextIndex {
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  public final AtomList atoms;
+  private final int atomCount;
+  private final Map<String, byte[]> postings;
+
+  private AtomTextIndex(AtomList atoms, int atomCount, Map<String, byte[]> postings) {
+    this.atoms = atoms;
+    this.atomCount = atomCount;
+    this.postings = postings;
+  }
+
+  /**
+   * Builds the index of the given atoms, formatting the atoms in parallel chunks.
+   *
+   * @return the index, or {@code null} if the build was cancelled.
+   */
+  public static AtomTextIndex build(FormattedAtoms atoms, BooleanSupplier cancelled) {
+    int count = atoms.getAtomCount();
+    int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    String[] strings = atoms.getStrings();
+    List<Map<String, Posting>> tokenized = IntStream.range(0, chunks).parallel()
+        .mapToObj(chunk -> cancelled.getAsBoolean() ? null : tokenize(atoms, strings,
+            chunk * CHUNK_SIZE, Math.min(count, (chunk + 1) * CHUNK_SIZE)))
+        .collect(toList());
+    if (cancelled.getAsBoolean()) {
+      return null;
+    }
+
+    // The chunks are in atom order, so appending them keeps the postings sorted.
+    Map<String, Posting> merged = Maps.newHashMap();
+    for (Map<String, Posting> chunk : tokenized) {
+      for (Map.Entry<String, Posting> entry : chunk.entrySet()) {
+        Posting posting = merged.computeIfAbsent(entry.getKey(), k -> new Posting());
+        entry.getValue().forEach(posting::add);
+      }
+    }
+
+    Map<String, byte[]> postings = Maps.newHashMapWithExpectedSize(merged.size());
+    for (Map.Entry<String, Posting> entry : merged.entrySet()) {
+      postings.put(entry.getKey(), entry.getValue().toByteArray());
+    }
+    return new AtomTextIndex(atoms.atoms, count, postings);
+  }
+
+  private static Map<String, Posting> tokenize(
+      FormattedAtoms atoms, String[] strings, int from, int to) {
+    Map<String, Posting> result = Maps.newHashMap();
+    for (int i = from; i < to; i++) {
+      String string = atoms.get(strings, i);
+      for (int end = 0, start; end < string.length(); end++) {
+        if (!isTokenChar(string.charAt(end))) {
+          continue;
+        }
+        start = end;
+        while (end < string.length() && isTokenChar(string.charAt(end))) {
+          end++;
+        }
+        String token = string.substring(start, end).toLowerCase(Locale.ROOT);
+        result.computeIfAbsent(token, k -> new Posting()).add(i);
+      }
+    }
+    return result;
+  }
+
+  private static boolean isTokenChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  /**
+   * @return whether the atoms containing the given text can be found using the index.
+   */
+  public static boolean isIndexable(String text) {
+    if (text.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      if (!isTokenChar(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the atoms whose formatted string contains the given text, ignoring case. The text
+   * must be {@link #isIndexable(String) indexable}.
+   */
+  public BitSet findAtoms(String text) {
+    String lower = text.toLowerCase(Locale.ROOT);
+    BitSet result = new BitSet(atomCount);
+    for (Map.Entry<String, byte[]> entry : postings.entrySet()) {
+      if (entry.getKey().contains(lower)) {
+        Posting.decode(entry.getValue(), result::set);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    long bytes = 0;
+    for (byte[] posting : postings.values()) {
+      bytes += posting.length;
+    }
+    return "AtomTextIndex{atoms=" + atomCount + ", tokens=" + postings.size() +
+        ", postingBytes=" + bytes + "}";
+  }
+
+  /**
+   * A sorted list of atom indices, delta and varint encoded.
+   */
+  private static class Posting {
+    private byte[] data = new byte[4];
+    private int size = 0;
+    private int last = -1;
+
+    public void add(int index) {
+      if (index == last) {
+        return; // The token occurs more than once in the atom.
+      }
+      if (size + 5 > data.length) {
+        data = Arrays.copyOf(data, Math.max(2 * data.length, size + 5));
+      }
+      for (int delta = index - last - 1; ; delta >>>= 7) {
+        if ((delta & ~0x7f) == 0) {
+          data[size++] = (byte)delta;
+          break;
+        }
+        data[size++] = (byte)((delta & 0x7f) | 0x80);
+      }
+      last = index;
+    }
+
+    public void forEach(IntConsumer consumer) {
+      decode(data, size, consumer);
+    }
+
+    public byte[] toByteArray() {
+      return Arrays.copyOf(data, size);
+    }
+
+    public static void decode(byte[] data, IntConsumer consumer) {
+      decode(data, data.length, consumer);
+    }
+
+    private static void decode(byte[] data, int size, IntConsumer consumer) {
+      for (int i = 0, last = -1; i < size; ) {
+        int delta = 0;
+        for (int shift = 0; ; shift += 7) {
+          byte b = data[i++];
+          delta |= (b & 0x7f) << shift;
+          if ((b & 0x80) == 0) {
+            break;
+          }
+        }
+        last += delta + 1;
+        consumer.accept(last);
+      }
+    }
+  }
+}
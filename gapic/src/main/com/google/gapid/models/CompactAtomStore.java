@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.models;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.gapid.rpclib.binary.Decoder;
+import com.google.gapid.service.atom.Atom;
+import com.google.gapid.service.atom.AtomList;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link AtomList.Store} keeping the atoms in their encoded form, in the buffer of the response
+ * they were decoded from, rather than as decoded objects. An atom is decoded from the buffer when
+ * it is accessed, using a fork of the decoder that decoded the whole list, so that it can resolve
+ * the entities and objects the atom refers to. The most recently accessed atoms are kept decoded.
+ */
+public class CompactAtomStore implements AtomList.Store {
+  private static final int MAX_DECODED_ATOMS = 64 * 1024;
+
+  public final AtomList atoms;
+  private final ByteBuffer data;
+  private final int[] offsets;
+  private final Decoder decoder;
+  private final LoadingCache<Long, Atom> decoded = CacheBuilder.newBuilder()
+      .maximumSize(MAX_DECODED_ATOMS)
+      .build(new CacheLoader<Long, Atom>() {
+        @Override
+        public Atom load(Long index) throws IOException {
+          return decode(index);
+        }
+      });
+
+  private CompactAtomStore(AtomList atoms, ByteBuffer data, int[] offsets, Decoder decoder) {
+    this.atoms = atoms;
+    this.data = data;
+    this.offsets = offsets;
+    this.decoder = decoder;
+  }
+
+  /**
+   * @return a read-only view of the given data, to decode the atom list from and to pass to the
+   * {@link Builder}. A flat {@link ByteString} is wrapped without copying it, only a rope, which
+   * cannot be accessed at random, is copied.
+   */
+  public static ByteBuffer wrap(ByteString data) {
+    List<ByteBuffer> buffers = data.asReadOnlyByteBufferList();
+    if (buffers.size() == 1) {
+      return buffers.get(0);
+    }
+    return ByteBuffer.wrap(data.toByteArray()).asReadOnlyBuffer();
+  }
+
+  @Override
+  public int getAtomCount() {
+    return offsets.length;
+  }
+
+  @Override
+  public Atom getAtom(long index) {
+    return decoded.getUnchecked(index);
+  }
+
+  /**
+   * @return the number of bytes of encoded atom data held by this store.
+   */
+  public int getSize() {
+    return data.remaining();
+  }
+
+  protected Atom decode(long index) throws IOException {
+    ByteBuffer buffer = data.duplicate();
+    buffer.position(offsets[(int)index]);
+    return Atom.wrap(decoder.fork(buffer).variant());
+  }
+
+  @Override
+  public String toString() {
+    return "CompactAtomStore{atoms=" + offsets.length + ", bytes=" + data.remaining() +
+        ", decoded=" + decoded.size() + "}";
+  }
+
+  /**
+   * Records the offsets of the atoms, as they are decoded from the buffer.
+   */
+  public static class Builder {
+    private final ByteBuffer data;
+    private int[] offsets = new int[0];
+    private int count = 0;
+
+    public Builder(ByteBuffer data) {
+      this.data = data;
+    }
+
+    public void start(int atomCount) {
+      offsets = new int[atomCount];
+      count = 0;
+    }
+
+    /**
+     * Records the start of the next atom at the current position of the given decoder.
+     */
+    public void add(Decoder d) {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, Math.max(64, 2 * offsets.length));
+      }
+      offsets[count++] = d.position();
+    }
+
+    /**
+     * @return the store of the recorded atoms of the given list, decoding them with forks of the
+     * given decoder, which must no longer be used once the store has been built.
+     */
+    public CompactAtomStore build(AtomList atoms, Decoder d) {
+      return new CompactAtomStore(atoms, data, Arrays.copyOf(offsets, count), d);
+    }
+  }
+}
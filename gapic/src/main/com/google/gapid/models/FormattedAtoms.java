@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.models;
+
+import com.google.gapid.service.atom.AtomList;
+import com.google.gapid.service.atom.DynamicAtom;
+import com.google.gapid.views.Formatter;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+
+/**
+ * The formatted strings of the atoms of an atom list, computed as needed and shared by the
+ * searches and the text index of the list. The strings are softly referenced, so they can be
+ * reclaimed under memory pressure.
+ */
+public class FormattedAtoms {
+  public final AtomList atoms;
+  private Reference<String[]> strings = new SoftReference<String[]>(null);
+
+  public FormattedAtoms(AtomList atoms) {
+    this.atoms = atoms;
+  }
+
+  public int getAtomCount() {
+    return atoms.getAtomCount();
+  }
+
+  /**
+   * @return the cache of formatted strings to pass to {@link #get(String[], long)}. Callers should
+   * hold on to it while formatting a batch of atoms.
+   */
+  protected synchronized String[] getStrings() {
+    String[] result = strings.get();
+    if (result == null) {
+      result = new String[getAtomCount()];
+      strings = new SoftReference<String[]>(result);
+    }
+    return result;
+  }
+
+  protected String get(String[] cache, long index) {
+    String result = cache[(int)index];
+    if (result == null) {
+      // Racing threads may both format the atom, but will store equal strings.
+      result = Formatter.toString((DynamicAtom)atoms.get(index));
+      cache[(int)index] = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.models;
+
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.Lists;
+import com.google.gapid.service.atom.Atom;
+import com.google.gapid.service.atom.AtomList;
+import com.google.gapid.service.atom.Observation;
+import com.google.gapid.service.atom.Observations;
+import com.google.gapid.service.memory.MemoryRange;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * An index of the memory reads and writes observed by all the atoms of an atom list, answering
+ * which atoms accessed an address, or a range of addresses, in O(log n + k) time.
+ *
+ * <p>The observations are kept in primitive arrays, sorted by their first address, and organized
+ * in a centered interval tree: each node holds the observations containing its center address,
+ * sorted both by their first address and by their last address, and the observations entirely
+ * before or after the center are in its left or right subtree. The observations containing an
+ * address are found by walking down a single path of the tree, and those overlapping a range are
+ * the ones containing its first address, plus the ones starting within it.
+ *
+ * <p>Addresses are stored biased by {@link Long#MIN_VALUE}, so that signed comparisons order them
+ * as the unsigned addresses they are.
+ */
+public class ObservationIndex {
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final long BIAS = Long.MIN_VALUE;
+
+  public final AtomList atoms;
+  // The first and last addresses of the observations, sorted by the first address, and their atom
+  // index, shifted left by one, with the lowest bit set for writes.
+  private final long[] firsts;
+  private final long[] lasts;
+  private final int[] accesses;
+  // The nodes of the tree, the root being node 0. The observations of a node are at
+  // [nodeStarts[node], nodeStarts[node + 1]) in both byFirst and byLastDescending.
+  private final long[] centers;
+  private final int[] lefts, rights;
+  private final int[] nodeStarts;
+  private final int[] byFirst;
+  private final int[] byLastDescending;
+
+  private ObservationIndex(AtomList atoms, long[] firsts, long[] lasts, int[] accesses,
+      long[] centers, int[] lefts, int[] rights, int[] nodeStarts, int[] byFirst,
+      int[] byLastDescending) {
+    this.atoms = atoms;
+    this.firsts = firsts;
+    this.lasts = lasts;
+    this.accesses = accesses;
+    this.centers = centers;
+    this.lefts = lefts;
+    this.rights = rights;
+    this.nodeStarts = nodeStarts;
+    this.byFirst = byFirst;
+    this.byLastDescending = byLastDescending;
+  }
+
+  /**
+   * Builds the index of the observations of the given atoms, collecting them in parallel chunks.
+   *
+   * @return the index, or {@code null} if the build was cancelled.
+   */
+  public static ObservationIndex build(AtomList atoms, BooleanSupplier cancelled) {
+    int count = atoms.getAtomCount();
+    int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    List<Collected> collected = IntStream.range(0, chunks).parallel()
+        .mapToObj(chunk -> cancelled.getAsBoolean() ? null :
+            collect(atoms, chunk * CHUNK_SIZE, Math.min(count, (chunk + 1) * CHUNK_SIZE)))
+        .collect(toList());
+    if (cancelled.getAsBoolean()) {
+      return null;
+    }
+
+    Collected all = new Collected();
+    for (Collected chunk : collected) {
+      for (int i = 0; i < chunk.count; i++) {
+        all.add(chunk.firsts[i], chunk.lasts[i], chunk.accesses[i]);
+      }
+    }
+
+    // Sort the observations by their first address, keeping the atom order of equal addresses.
+    int[] order = IntStream.range(0, all.count).boxed()
+        .sorted(Comparator.comparingLong(i -> all.firsts[i]))
+        .mapToInt(i -> i).toArray();
+    long[] firsts = new long[all.count], lasts = new long[all.count];
+    int[] accesses = new int[all.count];
+    for (int i = 0; i < order.length; i++) {
+      firsts[i] = all.firsts[order[i]];
+      lasts[i] = all.lasts[order[i]];
+      accesses[i] = all.accesses[order[i]];
+    }
+    if (cancelled.getAsBoolean()) {
+      return null;
+    }
+
+    TreeBuilder tree = new TreeBuilder(firsts, lasts);
+    if (firsts.length > 0) {
+      tree.build(IntStream.range(0, firsts.length).toArray());
+    }
+    tree.nodeStarts[tree.nodeCount] = tree.listCount;
+    return new ObservationIndex(atoms, firsts, lasts, accesses,
+        Arrays.copyOf(tree.centers, tree.nodeCount), Arrays.copyOf(tree.lefts, tree.nodeCount),
+        Arrays.copyOf(tree.rights, tree.nodeCount), Arrays.copyOf(tree.nodeStarts,
+            tree.nodeCount + 1), tree.byFirst, tree.byLastDescending);
+  }
+
+  private static Collected collect(AtomList atoms, int from, int to) {
+    Collected result = new Collected();
+    for (int i = from; i < to; i++) {
+      Atom atom = atoms.get(i);
+      if (atom.getObservationCount() == 0) {
+        continue;
+      }
+      Observations obs = atom.getObservations();
+      for (Observation read : obs.getReads()) {
+        result.add(read.getRange(), i << 1);
+      }
+      for (Observation write : obs.getWrites()) {
+        result.add(write.getRange(), (i << 1) | 1);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the reads and writes of the given address, in atom order.
+   */
+  public List<Access> getAccesses(long address) {
+    return getAccesses(address, 1);
+  }
+
+  /**
+   * @return the reads and writes overlapping the given range of memory, in atom order.
+   */
+  public List<Access> getAccesses(long base, long size) {
+    List<Access> result = Lists.newArrayList();
+    if (size != 0) {
+      visit(base ^ BIAS, lastAddress(base, size) ^ BIAS, id -> {
+        result.add(new Access(accesses[id] >>> 1, (accesses[id] & 1) != 0, firsts[id] ^ BIAS,
+            (lasts[id] - firsts[id]) + 1));
+        return true;
+      });
+    }
+    result.sort(Comparator.comparingLong((Access access) -> access.atom)
+        .thenComparing(access -> access.write));
+    return result;
+  }
+
+  /**
+   * @return whether any atom in the given inclusive range of atoms read or wrote any of the memory
+   * in the given range.
+   */
+  public boolean isAccessed(long base, long size, long fromAtom, long toAtom) {
+    if (size == 0) {
+      return false;
+    }
+    return !visit(base ^ BIAS, lastAddress(base, size) ^ BIAS, id -> {
+      long atom = accesses[id] >>> 1;
+      return atom < fromAtom || atom > toAtom;
+    });
+  }
+
+  /**
+   * Calls the visitor with the first and last address of each range of memory overlapping the
+   * given inclusive range of addresses and read or written by an atom up to, and including, the
+   * given atom, until it returns {@code false}. The ranges are not clamped and may overlap.
+   *
+   * @return whether all the ranges were visited.
+   */
+  public boolean visitAccessedRanges(long first, long last, long toAtom, RangeVisitor visitor) {
+    return visit(first ^ BIAS, last ^ BIAS, id ->
+        (accesses[id] >>> 1) > toAtom || visitor.visit(firsts[id] ^ BIAS, lasts[id] ^ BIAS));
+  }
+
+  /**
+   * @return the last address of the given non-empty range, clamped to the end of the address space.
+   */
+  public static long lastAddress(long base, long size) {
+    long last = base + size - 1;
+    return (Long.compareUnsigned(last, base) < 0) ? -1 : last;
+  }
+
+  /**
+   * Calls the visitor with the ids of the observations overlapping the given biased, inclusive
+   * range, until it returns {@code false}.
+   *
+   * @return whether all the observations were visited.
+   */
+  private boolean visit(long first, long last, IntPredicate visitor) {
+    if (!visitContaining(first, visitor)) {
+      return false;
+    }
+    // The observations starting after the first address and before, or at, the last address.
+    int pos = Arrays.binarySearch(firsts, first);
+    if (pos < 0) {
+      pos = -pos - 1;
+    }
+    while (pos < firsts.length && firsts[pos] <= first) {
+      pos++;
+    }
+    for (; pos < firsts.length && firsts[pos] <= last; pos++) {
+      if (!visitor.test(pos)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean visitContaining(long address, IntPredicate visitor) {
+    for (int node = (centers.length > 0) ? 0 : -1; node >= 0; ) {
+      int from = nodeStarts[node], to = nodeStarts[node + 1];
+      if (address < centers[node]) {
+        for (int i = from; i < to && firsts[byFirst[i]] <= address; i++) {
+          if (!visitor.test(byFirst[i])) {
+            return false;
+          }
+        }
+        node = lefts[node];
+      } else if (address > centers[node]) {
+        for (int i = from; i < to && lasts[byLastDescending[i]] >= address; i++) {
+          if (!visitor.test(byLastDescending[i])) {
+            return false;
+          }
+        }
+        node = rights[node];
+      } else {
+        for (int i = from; i < to; i++) {
+          if (!visitor.test(byFirst[i])) {
+            return false;
+          }
+        }
+        break;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "ObservationIndex{atoms=" + atoms.getAtomCount() + ", observations=" + firsts.length +
+        ", nodes=" + centers.length + "}";
+  }
+
+  /**
+   * Visitor of the inclusive ranges of memory accessed by atoms.
+   */
+  public static interface RangeVisitor {
+    /**
+     * @return whether to continue visiting the remaining ranges.
+     */
+    public boolean visit(long first, long last);
+  }
+
+  /**
+   * A read or write of a range of memory by an atom.
+   */
+  public static class Access {
+    public final long atom;
+    public final boolean write;
+    public final long base;
+    public final long size;
+
+    public Access(long atom, boolean write, long base, long size) {
+      this.atom = atom;
+      this.write = write;
+      this.base = base;
+      this.size = size;
+    }
+
+    @Override
+    public String toString() {
+      return "Command " + atom + ": " + (write ? "Write " : "Read ") + size + " byte" +
+          (size == 1 ? "" : "s") + String.format(" at 0x%016x", base);
+    }
+  }
+
+  /**
+   * The observations of a range of atoms, in atom order.
+   */
+  private static class Collected {
+    public long[] firsts = new long[16];
+    public long[] lasts = new long[16];
+    public int[] accesses = new int[16];
+    public int count = 0;
+
+    public void add(MemoryRange range, int access) {
+      if (range.getSize() != 0) {
+        add(range.getBase() ^ BIAS, lastAddress(range.getBase(), range.getSize()) ^ BIAS, access);
+      }
+    }
+
+    public void add(long first, long last, int access) {
+      if (count == firsts.length) {
+        firsts = Arrays.copyOf(firsts, 2 * count);
+        lasts = Arrays.copyOf(lasts, 2 * count);
+        accesses = Arrays.copyOf(accesses, 2 * count);
+      }
+      firsts[count] = first;
+      lasts[count] = last;
+      accesses[count] = access;
+      count++;
+    }
+  }
+
+  /**
+   * Builds the nodes of the tree. As every observation is held by exactly one node, there are at
+   * most as many nodes as observations.
+   */
+  private static class TreeBuilder {
+    private final long[] firsts, lasts;
+    public final long[] centers;
+    public final int[] lefts, rights, nodeStarts;
+    public final int[] byFirst, byLastDescending;
+    public int nodeCount = 0, listCount = 0;
+
+    public TreeBuilder(long[] firsts, long[] lasts) {
+      this.firsts = firsts;
+      this.lasts = lasts;
+      centers = new long[firsts.length];
+      lefts = new int[firsts.length];
+      rights = new int[firsts.length];
+      nodeStarts = new int[firsts.length + 1];
+      byFirst = new int[firsts.length];
+      byLastDescending = new int[firsts.length];
+    }
+
+    /**
+     * Builds the subtree of the given observations, which are sorted by their first address.
+     * Centering a node at the first address of the median observation leaves at most half of the
+     * observations to each subtree, so the tree has a logarithmic depth.
+     *
+     * @return the root node of the subtree.
+     */
+    public int build(int[] ids) {
+      long center = firsts[ids[ids.length / 2]];
+      int[] left = new int[ids.length], right = new int[ids.length];
+      int leftCount = 0, rightCount = 0, start = listCount;
+      for (int id : ids) {
+        if (lasts[id] < center) {
+          left[leftCount++] = id;
+        } else if (firsts[id] > center) {
+          right[rightCount++] = id;
+        } else {
+          byFirst[listCount++] = id;
+        }
+      }
+      int[] byLast = IntStream.of(Arrays.copyOfRange(byFirst, start, listCount)).boxed()
+          .sorted(Comparator.comparingLong((Integer id) -> lasts[id]).reversed())
+          .mapToInt(id -> id).toArray();
+      System.arraycopy(byLast, 0, byLastDescending, start, byLast.length);
+
+      int node = nodeCount++;
+      centers[node] = center;
+      nodeStarts[node] = start;
+      lefts[node] = (leftCount == 0) ? -1 : build(Arrays.copyOf(left, leftCount));
+      rights[node] = (rightCount == 0) ? -1 : build(Arrays.copyOf(right, rightCount));
+      return node;
+    }
+  }
+}
@@ -15,10 +15,17 @@
  */
 package com.google.gapid.models;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gapid.util.Paths.command;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
@@ -30,16 +37,15 @@ import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Events.ListenerCollection;
+import com.google.gapid.util.Scheduler;
 
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.internal.DPIUtil;
 
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class Thumbnails {
   protected static final Logger LOG = Logger.getLogger(ApiState.class.getName());
@@ -51,19 +57,27 @@ public class Thumbnails {
       .setMaxHeight(DPIUtil.autoScaleUp(THUMB_SIZE))
       .setWireframeMode(Service.WireframeMode.None)
       .build();
+  private static final long CACHE_SIZE = 64 * 1024 * 1024;
 
   private final Client client;
   private final Devices devices;
   private final AtomStream atoms;
   private final ListenerCollection<Listener> listeners = Events.listeners(Listener.class);
-  private final Queue<Thumbnail> queuedThumbnails = new PriorityQueue<>();
-  private final Thread processorThread;
+  private final Dispatcher dispatcher;
+  // Decoded thumbnails, both as fetched (size 0) and scaled to the requested sizes.
+  private final Cache<Key, ImageData> cache = CacheBuilder.newBuilder()
+      .maximumWeight(CACHE_SIZE)
+      .<Key, ImageData>weigher((key, image) -> image.data.length)
+      .recordStats()
+      .build();
+  // Whether listeners have already been notified while the atoms are being streamed in.
+  private boolean notifiedWhileLoading;
 
   public Thumbnails(Client client, Devices devices, Capture capture, AtomStream atoms) {
     this.client = client;
     this.devices = devices;
     this.atoms = atoms;
-    this.processorThread = new ProcessorThread(client, queuedThumbnails);
+    this.dispatcher = new Dispatcher(client);
 
     devices.addListener(new Devices.Listener() {
       @Override
@@ -72,6 +86,12 @@ public class Thumbnails {
       }
     });
     capture.addListener(new Capture.Listener() {
+      @Override
+      public void onCaptureLoadingStart() {
+        notifiedWhileLoading = false;
+        cache.invalidateAll();
+      }
+
       @Override
       public void onCaptureLoaded(GapisInitException error) {
         if (error == null) {
@@ -80,13 +100,22 @@ public class Thumbnails {
       }
     });
     atoms.addListener(new AtomStream.Listener() {
+      @Override
+      public void onAtomsLoading(int loaded, int total) {
+        if (!notifiedWhileLoading) {
+          notifiedWhileLoading = true;
+          update();
+        }
+      }
+
       @Override
       public void onAtomsLoaded() {
-        update();
+        if (!notifiedWhileLoading) {
+          update();
+        }
+        notifiedWhileLoading = false;
       }
     });
-
-    processorThread.start();
   }
 
   protected void update() {
@@ -96,27 +125,54 @@ public class Thumbnails {
   }
 
   public boolean isReady() {
-    return devices.hasReplayDevice() && atoms.isLoaded();
+    return devices.hasReplayDevice() && atoms.getLoadedAtomCount() > 0;
   }
 
   public ListenableFuture<ImageData> getThumbnail(long atomId, int size) {
-    Thumbnail result = new Thumbnail(atomId, getPath(atomId));
-    synchronized (queuedThumbnails) {
-      queuedThumbnails.add(result);
-      queuedThumbnails.notify();
+    Key key = new Key(devices.getReplayDevice(), command(atoms.getPath(), atomId), size);
+    ImageData image = cache.getIfPresent(key);
+    if (image != null) {
+      return Futures.immediateFuture(image);
     }
-    return Futures.transform(result.result, image -> processImage(image, size));
+    // Any size can be derived from the fetched thumbnail, which is the largest one.
+    ImageData fetched = cache.getIfPresent(key.fetched());
+    if (fetched != null) {
+      return Futures.immediateFuture(scale(key, fetched));
+    }
+
+    Thumbnail result = new Thumbnail(atomId, key.device, key.after);
+    dispatcher.add(result);
+    return Futures.transform(result.result, data -> {
+      cache.put(key.fetched(), data);
+      return scale(key, data);
+    });
   }
 
-  public void dispose() {
-    synchronized (queuedThumbnails) {
-      while (!queuedThumbnails.isEmpty()) {
-        Thumbnail thumbnail = queuedThumbnails.remove();
-        thumbnail.pathFuture.cancel(true);
-        thumbnail.result.cancel(true);
-      }
+  private ImageData scale(Key key, ImageData fetched) {
+    ImageData result = processImage(fetched, key.size);
+    if (result != fetched) {
+      cache.put(key, result);
     }
-    processorThread.interrupt();
+    return result;
+  }
+
+  /**
+   * Sets the range of atoms whose thumbnails are currently visible. Queued thumbnails closest to
+   * this range are fetched first.
+   */
+  public void setViewport(long firstAtomId, long lastAtomId) {
+    dispatcher.setViewport(firstAtomId, lastAtomId);
+  }
+
+  public Stats getStats() {
+    return dispatcher.getStats();
+  }
+
+  public void dispose() {
+    dispatcher.dispose();
+    LOG.log(INFO, "Thumbnail cache stats: {0}", cache.stats());
+    LOG.log(INFO, "Decoded image cache stats: {0}", FetchedImage.getCacheStats());
+    cache.invalidateAll();
   }
 
   private static ImageData processImage(ImageData image, int size) {
@@ -130,11 +186,6 @@ public class Thumbnails {
     }
   }
 
-  private ListenableFuture<Path.ImageInfo> getPath(long atomId) {
-    return client.getFramebufferAttachment(devices.getReplayDevice(),
-        command(atoms.getPath(), atomId), GfxAPI.FramebufferAttachment.Color0, RENDER_SETTINGS);
-  }
-
   public void addListener(Listener listener) {
     listeners.addListener(listener);
   }
@@ -147,96 +198,294 @@ public class Thumbnails {
     public default void onThumnailsChanged() { /* empty */ }
   }
 
-  private static class Thumbnail implements Comparable<Thumbnail> {
+  /**
+   * Queue and latency statistics of the thumbnail requests.
+   */
+  public static class Stats {
+    public final int queued;
+    public final int inFlight;
+    public final long completed;
+    public final long failed;
+    public final long dropped;
+    public final long averageLatencyMs;
+    public final long maxLatencyMs;
+
+    public Stats(int queued, int inFlight, long completed, long failed, long dropped,
+        long averageLatencyMs, long maxLatencyMs) {
+      this.queued = queued;
+      this.inFlight = inFlight;
+      this.completed = completed;
+      this.failed = failed;
+      this.dropped = dropped;
+      this.averageLatencyMs = averageLatencyMs;
+      this.maxLatencyMs = maxLatencyMs;
+    }
+
+    @Override
+    public String toString() {
+      return "Thumbnails{queued=" + queued + ", inFlight=" + inFlight +
+          ", completed=" + completed + ", failed=" + failed + ", dropped=" + dropped +
+          ", avgLatency=" + averageLatencyMs + "ms, maxLatency=" + maxLatencyMs + "ms}";
+    }
+  }
+
+  private static class Key {
+    private static final int FETCHED = 0;
+
+    public final Path.Device device;
+    public final Path.Command after;
+    public final int size;
+
+    public Key(Path.Device device, Path.Command after, int size) {
+      this.device = device;
+      this.after = after;
+      this.size = size;
+    }
+
+    public Key fetched() {
+      return new Key(device, after, FETCHED);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(device, after, size);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key k = (Key)obj;
+      return size == k.size && Objects.equals(device, k.device) && Objects.equals(after, k.after);
+    }
+  }
+
+  private static class Thumbnail {
     public final long atomId;
-    public final ListenableFuture<Path.ImageInfo> pathFuture;
+    public final Path.Device device;
+    public final Path.Command after;
     public final SettableFuture<ImageData> result;
+    public final long requestTime = System.nanoTime();
+    public long sequence;
 
-    public Thumbnail(long atomId, ListenableFuture<Path.ImageInfo> pathFuture) {
+    public Thumbnail(long atomId, Path.Device device, Path.Command after) {
       this.atomId = atomId;
-      this.pathFuture = pathFuture;
+      this.device = device;
+      this.after = after;
       this.result = SettableFuture.create();
     }
-
-    @Override
-    public int compareTo(Thumbnail o) {
-      return Long.compare(atomId, o.atomId);
-    }
   }
 
-  private static class ProcessorThread extends Thread {
-    private static final long BATCH_TIMEOUT_MS = 10;
-    private static final int BATCH_SIZE = 25;
+  /**
+   * Fetches the queued thumbnails, keeping a bounded number of them in flight. The thumbnails
+   * closest to the viewport are fetched first and thumbnails that are cancelled while queued are
+   * dropped without ever reaching the server. A short delay before dispatching allows the
+   * thumbnails requested by a single paint to be requested together. Each thumbnail's replay
+   * completes on its own, and the images of the replays that complete within a short window of
+   * each other are then fetched as one batch, so a slow replay does not hold up the others.
+   */
+  private static class Dispatcher {
+    private static final int MAX_IN_FLIGHT = 8;
+    private static final long DISPATCH_DELAY_MS = 10;
 
     private final Client client;
-    private final Queue<Thumbnail> queue;
+    // All the fields below are guarded by this.
+    private final List<Thumbnail> queue = Lists.newArrayList();
+    private long nextSequence = 0;
+    private long viewFirst = 0, viewLast = Long.MAX_VALUE;
+    private int inFlight = 0;
+    private boolean dispatchScheduled = false;
+    // The thumbnails whose replay has completed, and their image paths, waiting to be loaded.
+    private final List<Thumbnail> replayed = Lists.newArrayList();
+    private final List<Path.ImageInfo> replayedPaths = Lists.newArrayList();
+    private boolean loadScheduled = false;
+    private boolean disposed = false;
+    private long completed, failed, dropped, totalLatencyNs, maxLatencyNs;
 
-    public ProcessorThread(Client client, Queue<Thumbnail> queue) {
-      super(ProcessorThread.class.getName());
+    public Dispatcher(Client client) {
       this.client = client;
-      this.queue = queue;
-      setDaemon(true);
     }
 
-    @Override
-    public void run() {
-      while (true) {
-        List<Thumbnail> batch = Lists.newArrayList();
-        synchronized (queue) {
-          while (queue.isEmpty()) {
-            if (!await()) {
-              return;
-            }
+    public void add(Thumbnail thumbnail) {
+      synchronized (this) {
+        if (disposed) {
+          thumbnail.result.cancel(true);
+          return;
+        }
+        thumbnail.sequence = nextSequence++;
+        queue.add(thumbnail);
+        scheduleDispatch();
+      }
+      thumbnail.result.addListener(() -> {
+        if (thumbnail.result.isCancelled()) {
+          drop(thumbnail);
+        }
+      }, directExecutor());
+    }
+
+    public synchronized void setViewport(long first, long last) {
+      viewFirst = first;
+      viewLast = last;
+    }
+
+    public synchronized Stats getStats() {
+      long finished = completed + failed;
+      return new Stats(queue.size(), inFlight, completed, failed, dropped,
+          (finished == 0) ? 0 : NANOSECONDS.toMillis(totalLatencyNs / finished),
+          NANOSECONDS.toMillis(maxLatencyNs));
+    }
+
+    public void dispose() {
+      List<Thumbnail> cancelled;
+      synchronized (this) {
+        disposed = true;
+        cancelled = Lists.newArrayList(queue);
+        queue.clear();
+      }
+      cancelled.forEach(thumbnail -> thumbnail.result.cancel(true));
+      LOG.log(INFO, "Thumbnail stats: {0}", getStats());
+    }
+
+    private void scheduleDispatch() {
+      if (!dispatchScheduled) {
+        dispatchScheduled = true;
+        Scheduler.EXECUTOR.schedule(this::dispatch, DISPATCH_DELAY_MS, MILLISECONDS);
+      }
+    }
+
+    private synchronized void drop(Thumbnail thumbnail) {
+      if (queue.remove(thumbnail)) {
+        dropped++;
+      }
+    }
+
+    private void dispatch() {
+      List<Thumbnail> batch = Lists.newArrayList();
+      synchronized (this) {
+        dispatchScheduled = false;
+        while (!disposed && inFlight < MAX_IN_FLIGHT && !queue.isEmpty()) {
+          batch.add(removeNext());
+          inFlight++;
+        }
+        if (batch.isEmpty()) {
+          return;
+        }
+        LOG.log(FINE, "Dispatching {0} thumbnails, {1} queued, {2} in flight",
+            new Object[] { batch.size(), queue.size(), inFlight });
+      }
+
+      for (Thumbnail thumbnail : batch) {
+        ListenableFuture<Path.ImageInfo> path = client.getFramebufferAttachment(thumbnail.device,
+            thumbnail.after, GfxAPI.FramebufferAttachment.Color0, RENDER_SETTINGS);
+        thumbnail.result.addListener(() -> {
+          if (thumbnail.result.isCancelled()) {
+            // Stop the replay, if it has not completed yet.
+            path.cancel(true);
+          }
+          onDone(thumbnail);
+        }, directExecutor());
+        Futures.addCallback(path, new FutureCallback<Path.ImageInfo>() {
+          @Override
+          public void onSuccess(Path.ImageInfo result) {
+            onReplayed(thumbnail, result);
           }
 
-          for (long end = System.currentTimeMillis() + BATCH_TIMEOUT_MS;
-              batch.size() < BATCH_SIZE && end > System.currentTimeMillis(); ) {
-            while (!queue.isEmpty() && batch.size() < BATCH_SIZE) {
-              Thumbnail thumbnail = queue.remove();
-              if (!thumbnail.result.isCancelled()) {
-                batch.add(thumbnail);
-              }
-            }
-            if (batch.size() < BATCH_SIZE && !await()) {
-              return;
-            }
+          @Override
+          public void onFailure(Throwable t) {
+            thumbnail.result.setException(t);
+          }
+        });
+      }
+    }
+
+    private synchronized void onReplayed(Thumbnail thumbnail, Path.ImageInfo path) {
+      replayed.add(thumbnail);
+      replayedPaths.add(path);
+      if (!loadScheduled) {
+        loadScheduled = true;
+        Scheduler.EXECUTOR.schedule(this::loadReplayed, DISPATCH_DELAY_MS, MILLISECONDS);
+      }
+    }
+
+    /**
+     * Loads the images of all the thumbnails whose replay has completed, in one batch.
+     */
+    private void loadReplayed() {
+      List<Thumbnail> thumbnails = Lists.newArrayList();
+      List<ListenableFuture<Path.ImageInfo>> paths = Lists.newArrayList();
+      synchronized (this) {
+        loadScheduled = false;
+        for (int i = 0; i < replayed.size(); i++) {
+          if (!replayed.get(i).result.isDone()) {
+            thumbnails.add(replayed.get(i));
+            paths.add(Futures.immediateFuture(replayedPaths.get(i)));
           }
         }
-        if (!process(batch)) {
-          return;
+        replayed.clear();
+        replayedPaths.clear();
+      }
+      if (thumbnails.isEmpty()) {
+        return;
+      }
+
+      List<ListenableFuture<ImageData>> images =
+          FetchedImage.loadLevels(client, FetchedImage.loadAll(client, paths), 0);
+      for (int i = 0; i < thumbnails.size(); i++) {
+        thumbnails.get(i).result.setFuture(images.get(i));
+      }
+    }
+
+    /**
+     * Removes and returns the queued thumbnail closest to the viewport, the oldest one first if
+     * there is a tie.
+     */
+    private Thumbnail removeNext() {
+      int best = 0;
+      long bestDistance = distanceToViewport(queue.get(0));
+      for (int i = 1; i < queue.size(); i++) {
+        long distance = distanceToViewport(queue.get(i));
+        if (distance < bestDistance ||
+            (distance == bestDistance && queue.get(i).sequence < queue.get(best).sequence)) {
+          best = i;
+          bestDistance = distance;
         }
       }
+      return queue.remove(best);
     }
 
-    private boolean process(List<Thumbnail> batch) {
-      LOG.log(FINE, "Processing a batch of " + batch.size() + " thumbnails.");
-      long start = System.currentTimeMillis();
-      try {
-        Futures.whenAllComplete(batch.stream().map(thumbnail -> {
-          thumbnail.result.setFuture(
-              FetchedImage.loadLevel(FetchedImage.load(client, thumbnail.pathFuture), 0));
-          return thumbnail.result;
-        }).collect(Collectors.toList())).call(() -> null).get();
-      } catch (ExecutionException e) {
-        throw new AssertionError(); // "() -> null" above should not throw an exception.
-      } catch (InterruptedException e) {
-        LOG.log(FINE, "Aborting thumbnail fetching in process() due to interrupt");
-        return false;
+    private long distanceToViewport(Thumbnail thumbnail) {
+      if (thumbnail.atomId < viewFirst) {
+        return viewFirst - thumbnail.atomId;
+      } else if (thumbnail.atomId > viewLast) {
+        return thumbnail.atomId - viewLast;
       }
-      long end = System.currentTimeMillis();
-      LOG.log(FINE,
-          "Took " + (end - start) + "ms to process a batch of " + batch.size() + " thumbnails.");
-      return true;
+      return 0;
     }
 
-    private boolean await() {
-      try {
-        queue.wait(BATCH_TIMEOUT_MS);
-        return true;
-      } catch (InterruptedException e) {
-        LOG.log(FINE, "Aborting thumbnail fetching in await() due to interrupt");
-        return false;
+    private void onDone(Thumbnail thumbnail) {
+      synchronized (this) {
+        inFlight--;
+        long latency = System.nanoTime() - thumbnail.requestTime;
+        if (thumbnail.result.isCancelled()) {
+          dropped++;
+        } else {
+          try {
+            Futures.getDone(thumbnail.result);
+            completed++;
+          } catch (ExecutionException e) {
+            failed++;
+          }
+          totalLatencyNs += latency;
+          maxLatencyNs = Math.max(maxLatencyNs, latency);
+        }
+        if (queue.isEmpty()) {
+          return;
+        }
       }
+      dispatch();
     }
   }
 }
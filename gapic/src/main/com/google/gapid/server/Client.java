@@ -17,6 +17,7 @@ package com.google.gapid.server;
 
 import static java.util.logging.Level.FINE;
 
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.models.Strings;
@@ -46,11 +47,11 @@ import com.google.gapid.rpclib.schema.Message;
 import com.google.gapid.util.Paths;
 import com.google.protobuf.ByteString;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class Client {
   private static final Logger LOG = Logger.getLogger(Client.class.getName());
@@ -85,6 +86,23 @@ public class Client {
     );
   }
 
+  /**
+   * Gets the values of all the given paths in one batch. The returned futures are in the same
+   * order as the paths and fail individually.
+   */
+  public List<ListenableFuture<Value>> getAll(List<Path.Any> paths) {
+    LOG.log(FINE, "RPC->getAll(<{0} paths>)", paths.size());
+    List<ListenableFuture<Service.GetResponse>> responses = client.getAll(paths.stream()
+        .map(path -> GetRequest.newBuilder().setPath(path).build())
+        .collect(Collectors.toList()));
+    List<ListenableFuture<Value>> result = Lists.newArrayListWithCapacity(paths.size());
+    for (ListenableFuture<Service.GetResponse> response : responses) {
+      result.add(Futures.transformAsync(response,
+          in -> Futures.immediateFuture(throwIfError(in.getValue(), in.getError()))));
+    }
+    return result;
+  }
+
   public ListenableFuture<Path.Any> set(Path.Any path, Service.Value value) {
     LOG.log(FINE, "RPC->set({0}, {1})", new Object[] { path, value });
     return Futures.transformAsync(
@@ -174,16 +192,25 @@ public class Client {
 
   @SuppressWarnings("unchecked")
   public static <V> V decode(Service.Object object) throws IOException {
-    Decoder d = new Decoder(new ByteArrayInputStream(object.getData().toByteArray()));
-    return (V)d.object();
+    return (V)newDecoder(object.getData()).object();
+  }
+
+  /**
+   * Returns a {@link Decoder} reading directly from the given data, without copying it. A flat
+   * {@link ByteString} is decoded from its read-only buffer view, while a rope is streamed over
+   * its segments.
+   */
+  public static Decoder newDecoder(ByteString data) {
+    List<ByteBuffer> buffers = data.asReadOnlyByteBufferList();
+    return (buffers.size() == 1) ? new Decoder(buffers.get(0)) : new Decoder(data.newInput());
   }
 
   public static Service.Object encode(BinaryObject object) throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    Encoder e = new Encoder(baos);
+    ByteString.Output out = ByteString.newOutput();
+    Encoder e = new Encoder(out);
     e.object(object);
     return Service.Object.newBuilder()
-        .setData(ByteString.copyFrom(baos.toByteArray()))
+        .setData(out.toByteString())
         .build();
   }
 
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.util.Scheduler;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A persistent, size bounded cache of RPC responses. Only responses to requests that are rooted
+ * at a capture or a blob are stored, as these are identified by the hash of their content and thus
+ * never change. Entries are stored one file per request, grouped into a directory per capture,
+ * and evicted least recently used first, once the cache exceeds its byte budget.
+ */
+public class DiskCache {
+  private static final Logger LOG = Logger.getLogger(DiskCache.class.getName());
+
+  private static final String BLOBS_DIR = "blobs";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final File dir;
+  private final long maxBytes;
+  // Access ordered map of entry path (relative to dir) to entry size. Guarded by this.
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size = 0;
+  private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+  private DiskCache(File dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Opens, or creates, the cache in the given directory, indexing any existing entries.
+   */
+  public static DiskCache open(File dir, long maxBytes) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create cache directory " + dir);
+    }
+
+    DiskCache cache = new DiskCache(dir, maxBytes);
+    cache.index();
+    LOG.log(INFO, "Opened disk cache {0} with {1} entries, {2} bytes",
+        new Object[] { dir, cache.entries.size(), cache.size });
+    return cache;
+  }
+
+  /**
+   * Reads the cached response to the given request in the background. The returned future
+   * resolves to {@code null} if the request is not cached.
+   */
+  public <V extends Message> ListenableFuture<V> read(
+      String kind, Message request, Parser<V> parser) {
+    String key = keyOf(kind, request);
+    if (key == null || !contains(key)) {
+      misses.incrementAndGet();
+      return Futures.immediateFuture(null);
+    }
+
+    return Scheduler.EXECUTOR.submit(() -> {
+      File file = new File(dir, key);
+      try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+        // The request is stored with the response to guard against hash collisions.
+        Message stored = request.getParserForType().parseDelimitedFrom(in);
+        if (request.equals(stored)) {
+          V result = parser.parseDelimitedFrom(in);
+          if (result != null) {
+            hits.incrementAndGet();
+            file.setLastModified(System.currentTimeMillis());
+            return result;
+          }
+        }
+      } catch (IOException e) {
+        LOG.log(FINE, "Failed to read disk cache entry " + file, e);
+      }
+      misses.incrementAndGet();
+      remove(key);
+      return null;
+    });
+  }
+
+  /**
+   * Writes the response to the given request into the cache in the background.
+   */
+  public void write(String kind, Message request, Message response) {
+    String key = keyOf(kind, request);
+    if (key == null) {
+      return;
+    }
+
+    Scheduler.EXECUTOR.execute(() -> {
+      File file = new File(dir, key);
+      File temp = new File(dir, key + TEMP_SUFFIX);
+      try {
+        temp.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+          request.writeDelimitedTo(out);
+          response.writeDelimitedTo(out);
+        }
+        // Readers only ever see complete entries.
+        Files.move(temp.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+        add(key, file.length());
+      } catch (IOException e) {
+        LOG.log(WARNING, "Failed to write disk cache entry " + file, e);
+        temp.delete();
+      }
+    });
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DiskCache{entries=" + entries.size() + ", bytes=" + getSize() +
+        ", hits=" + hits.get() + ", misses=" + misses.get() + "}";
+  }
+
+  private void index() {
+    File[] files = listEntries();
+    // Least recently used first, so the map's access order matches the files'.
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    String root = dir.getPath() + File.separator;
+    synchronized (this) {
+      for (File file : files) {
+        entries.put(file.getPath().substring(root.length()), file.length());
+        size += file.length();
+      }
+      evict();
+    }
+  }
+
+  private File[] listEntries() {
+    List<File> result = Lists.newArrayList();
+    File[] groups = dir.listFiles(File::isDirectory);
+    for (File group : (groups == null) ? new File[0] : groups) {
+      File[] files = group.listFiles();
+      for (File file : (files == null) ? new File[0] : files) {
+        if (file.getName().endsWith(TEMP_SUFFIX)) {
+          // Left over by an interrupted write.
+          file.delete();
+        } else if (file.isFile()) {
+          result.add(file);
+        }
+      }
+    }
+    return result.toArray(new File[result.size()]);
+  }
+
+  private synchronized boolean contains(String key) {
+    return entries.get(key) != null;
+  }
+
+  private synchronized void add(String key, long length) {
+    Long old = entries.put(key, length);
+    size += length - ((old == null) ? 0 : old);
+    evict();
+  }
+
+  private synchronized void remove(String key) {
+    Long old = entries.remove(key);
+    if (old != null) {
+      size -= old;
+      new File(dir, key).delete();
+    }
+  }
+
+  private synchronized void evict() {
+    for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        size > maxBytes && it.hasNext(); ) {
+      Map.Entry<String, Long> entry = it.next();
+      it.remove();
+      size -= entry.getValue();
+      new File(dir, entry.getKey()).delete();
+    }
+  }
+
+  /**
+   * @return the path of the entry of the given request, relative to the cache directory, or
+   * {@code null} if the request's response should not be cached.
+   */
+  private static String keyOf(String kind, Message request) {
+    String group = findGroup(request);
+    if (group == null) {
+      return null;
+    }
+    String hash = Hashing.sha1().newHasher()
+        .putUnencodedChars(kind)
+        .putBytes(request.toByteArray())
+        .hash().toString();
+    return group + File.separator + hash;
+  }
+
+  /**
+   * @return the name of the directory of the capture the given request is rooted at, or the blob
+   * directory, or {@code null} if the request is neither.
+   */
+  private static String findGroup(Message message) {
+    if (message instanceof Path.Capture) {
+      return BaseEncoding.base16().lowerCase().encode(
+          ((Path.Capture)message).getId().getData().toByteArray());
+    } else if (message instanceof Path.Blob) {
+      return BLOBS_DIR;
+    }
+
+    for (Map.Entry<FieldDescriptor, Object> field : message.getAllFields().entrySet()) {
+      if (field.getKey().getJavaType() != FieldDescriptor.JavaType.MESSAGE) {
+        continue;
+      }
+      Iterable<?> values = field.getKey().isRepeated() ?
+          (List<?>)field.getValue() : Arrays.asList(field.getValue());
+      for (Object value : values) {
+        String group = findGroup((Message)value);
+        if (group != null) {
+          return group;
+        }
+      }
+    }
+    return null;
+  }
+}
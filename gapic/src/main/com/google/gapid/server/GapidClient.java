@@ -18,6 +18,9 @@ package com.google.gapid.server;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.service.Service;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
  * The public API to communicate with the server.
  */
@@ -25,6 +28,17 @@ public interface GapidClient {
   public ListenableFuture<Service.GetServerInfoResponse> getServerInfo(
       Service.GetServerInfoRequest request);
   public ListenableFuture<Service.GetResponse> get(Service.GetRequest request);
+
+  /**
+   * Gets the values of all the given requests in one batch. The responses are in the same order
+   * as the requests and complete, or fail, individually. Servers without batch support are
+   * queried with parallel single requests.
+   */
+  public default List<ListenableFuture<Service.GetResponse>> getAll(
+      List<Service.GetRequest> requests) {
+    return requests.stream().map(this::get).collect(Collectors.toList());
+  }
+
   public ListenableFuture<Service.SetResponse> set(Service.SetRequest request);
   public ListenableFuture<Service.FollowResponse> follow(Service.FollowRequest request);
   public ListenableFuture<Service.BeginCPUProfileResponse> beginCPUProfile(
@@ -15,10 +15,13 @@
  */
 package com.google.gapid.server;
 
-import static com.google.gapid.util.Scheduler.EXECUTOR;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.logging.Level.INFO;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.service.GapidGrpc;
@@ -27,17 +30,32 @@ import com.google.gapid.proto.service.Service.FollowRequest;
 import com.google.gapid.proto.service.Service.FollowResponse;
 import com.google.gapid.proto.service.Service.GetRequest;
 import com.google.gapid.proto.service.Service.GetResponse;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 /**
- * A caching {@link GapidClientGrpc}.
+ * A caching {@link GapidClientGrpc}. The cached responses are weighed by their serialized size
+ * and evicted least recently used first, once the cache exceeds its byte budget. Concurrent
+ * identical requests share a single in-flight RPC. Optionally, a {@link DiskCache} is consulted
+ * before issuing any RPC and the successful responses are persisted to it.
  */
 public class GapidClientCache extends GapidClientGrpc {
+  private static final Logger LOG = Logger.getLogger(GapidClientCache.class.getName());
+
+  // Follow responses are small paths, so only a fraction of the budget is used for them.
+  private static final int FOLLOW_CACHE_FRACTION = 16;
+
   private final RpcCache<Service.GetRequest, Service.GetResponse> getCache;
   private final RpcCache<Service.FollowRequest, Service.FollowResponse> followCache;
 
-  public GapidClientCache(GapidGrpc.GapidFutureStub client) {
+  public GapidClientCache(GapidGrpc.GapidFutureStub client, long maxBytes) {
     super(client);
-    this.getCache = new RpcCache<Service.GetRequest, Service.GetResponse>() {
+    this.getCache = new RpcCache<Service.GetRequest, Service.GetResponse>(
+        "get", Service.GetResponse.parser(), maxBytes) {
       @Override
       protected ListenableFuture<GetResponse> fetch(GetRequest key) {
         return client.get(key);
@@ -48,7 +66,8 @@ public class GapidClientCache extends GapidClientGrpc {
         return result.getResCase() == Service.GetResponse.ResCase.VALUE;
       }
     };
-    this.followCache = new RpcCache<Service.FollowRequest, Service.FollowResponse>() {
+    this.followCache = new RpcCache<Service.FollowRequest, Service.FollowResponse>(
+        "follow", Service.FollowResponse.parser(), maxBytes / FOLLOW_CACHE_FRACTION) {
       @Override
       protected ListenableFuture<FollowResponse> fetch(FollowRequest request) {
         return client.follow(request);
@@ -71,30 +90,166 @@ public class GapidClientCache extends GapidClientGrpc {
     return followCache.get(request);
   }
 
-  private abstract static class RpcCache<K, V> {
-    private final Cache<K, V> cache = CacheBuilder.newBuilder().softValues().build();
+  /**
+   * Sets the persistent cache to back this cache with. May be {@code null} to not use any.
+   */
+  public void setDiskCache(DiskCache disk) {
+    getCache.disk = disk;
+    followCache.disk = disk;
+  }
+
+  /**
+   * @return the hit, miss and eviction statistics of the get response cache.
+   */
+  public CacheStats getGetStats() {
+    return getCache.getStats();
+  }
+
+  /**
+   * @return the hit, miss and eviction statistics of the follow response cache.
+   */
+  public CacheStats getFollowStats() {
+    return followCache.getStats();
+  }
+
+  /**
+   * @return the approximate number of bytes used by the cached get and follow responses.
+   */
+  public long getCachedBytes() {
+    return getCache.getWeight() + followCache.getWeight();
+  }
+
+  public void logStats() {
+    LOG.log(INFO, "RPC cache: {0} bytes, get: {1}, follow: {2}, disk: {3}",
+        new Object[] { getCachedBytes(), getGetStats(), getFollowStats(), getCache.disk });
+  }
+
+  private abstract static class RpcCache<K extends Message, V extends Message> {
+    private final String kind;
+    private final Parser<V> parser;
+    private final Cache<K, V> cache;
+    private final AtomicLong weight = new AtomicLong();
+    private final Map<K, InFlight> inFlight = Maps.newHashMap();
+    private volatile DiskCache disk;
 
-    public RpcCache() {
+    public RpcCache(String kind, Parser<V> parser, long maxBytes) {
+      this.kind = kind;
+      this.parser = parser;
+      // A single segment, so that the whole budget is available to large responses.
+      this.cache = CacheBuilder.newBuilder()
+          .concurrencyLevel(1)
+          .maximumWeight(maxBytes)
+          .<K, V>weigher(RpcCache::weigh)
+          .removalListener(
+              removal -> weight.addAndGet(-weigh(removal.getKey(), removal.getValue())))
+          .recordStats()
+          .build();
     }
 
     public ListenableFuture<V> get(final K request) {
-      // Look up the value in the cache using the executor.
-      ListenableFuture<V> cacheLookUp = EXECUTOR.submit(() -> cache.getIfPresent(request));
-      return Futures.transformAsync(cacheLookUp, fromCache -> {
-        if (fromCache != null) {
-          return Futures.immediateFuture(fromCache);
+      V fromCache = cache.getIfPresent(request);
+      if (fromCache != null) {
+        return Futures.immediateFuture(fromCache);
+      }
+
+      synchronized (inFlight) {
+        InFlight call = inFlight.get(request);
+        if (call == null) {
+          call = new InFlight(request);
+          if (call.isDone()) {
+            return call.result;
+          }
+          inFlight.put(request, call);
+        }
+        return call.join();
+      }
+    }
+
+    public CacheStats getStats() {
+      return cache.stats();
+    }
+
+    public long getWeight() {
+      return weight.get();
+    }
+
+    private static int weigh(Message key, Message value) {
+      return key.getSerializedSize() + value.getSerializedSize();
+    }
+
+    protected abstract ListenableFuture<V> fetch(K request);
+
+    protected abstract boolean isSuccessful(V result);
+
+    /**
+     * An RPC shared by all callers requesting the same value while it is in flight. The RPC is
+     * only cancelled once all of its callers have cancelled their futures.
+     */
+    private class InFlight {
+      private final K request;
+      private final ListenableFuture<V> result;
+      private int callers = 0;
+
+      public InFlight(K request) {
+        this.request = request;
+        DiskCache diskCache = disk;
+        if (diskCache == null) {
+          this.result = fetchAndCache(null);
+        } else {
+          this.result = Futures.transformAsync(diskCache.read(kind, request, parser),
+              fromDisk -> (fromDisk == null) ? fetchAndCache(diskCache) : cache(fromDisk));
         }
+        result.addListener(this::remove, directExecutor());
+      }
+
+      private ListenableFuture<V> fetchAndCache(DiskCache diskCache) {
         return Futures.transform(fetch(request), fromServer -> {
           if (isSuccessful(fromServer)) {
-            cache.put(request, fromServer);
+            cache(fromServer);
+            if (diskCache != null) {
+              diskCache.write(kind, request, fromServer);
+            }
           }
           return fromServer;
         });
-      });
-    }
+      }
 
-    protected abstract ListenableFuture<V> fetch(K request);
+      private ListenableFuture<V> cache(V value) {
+        weight.addAndGet(weigh(request, value));
+        cache.put(request, value);
+        return Futures.immediateFuture(value);
+      }
 
-    protected abstract boolean isSuccessful(V result);
+      public boolean isDone() {
+        return result.isDone();
+      }
+
+      // Must be called while holding the inFlight lock.
+      public ListenableFuture<V> join() {
+        callers++;
+        ListenableFuture<V> future = Futures.nonCancellationPropagating(result);
+        future.addListener(() -> {
+          if (future.isCancelled()) {
+            leave();
+          }
+        }, directExecutor());
+        return future;
+      }
+
+      private void leave() {
+        synchronized (inFlight) {
+          if (--callers == 0 && !result.isDone()) {
+            remove();
+            result.cancel(true);
+          }
+        }
+      }
+
+      private void remove() {
+        synchronized (inFlight) {
+          inFlight.remove(request, this);
+        }
+      }
+    }
   }
 }
@@ -35,12 +35,14 @@ public class Events {
   public static final int Search  = 0x7f000004;
 
   public static final int REGEX = 1 << 10; // Used in the Search event.
+  public static final int PREVIOUS = 1 << 11; // Used in the Search event.
 
-  public static Event newSearchEvent(Widget source, String text, boolean regex) {
+  public static Event newSearchEvent(
+      Widget source, String text, boolean regex, boolean previous) {
     Event event = new Event();
     event.widget = source;
     event.text = text;
-    event.detail = regex ? REGEX : 0;
+    event.detail = (regex ? REGEX : 0) | (previous ? PREVIOUS : 0);
     return event;
   }
 
@@ -17,6 +17,7 @@ package com.google.gapid.views;
 
 import static com.google.gapid.models.Thumbnails.THUMB_SIZE;
 import static com.google.gapid.util.Loadable.MessageType.Error;
+import static com.google.gapid.util.Ranges.command;
 import static com.google.gapid.util.Ranges.count;
 import static com.google.gapid.util.Ranges.first;
 import static com.google.gapid.util.Ranges.last;
@@ -33,6 +34,7 @@ import com.google.gapid.models.ApiContext.FilteringContext;
 import com.google.gapid.models.AtomHierarchies;
 import com.google.gapid.models.AtomHierarchies.AtomNode;
 import com.google.gapid.models.AtomHierarchies.FilteredGroup;
+import com.google.gapid.models.AtomSearch;
 import com.google.gapid.models.AtomStream;
 import com.google.gapid.models.Capture;
 import com.google.gapid.models.Models;
@@ -41,6 +43,10 @@ import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.Service.CommandGroup;
 import com.google.gapid.proto.service.Service.CommandRange;
 import com.google.gapid.proto.service.path.Path;
+import com.google.gapid.rpclib.futures.FutureController;
+import com.google.gapid.rpclib.futures.SingleInFlight;
+import com.google.gapid.rpclib.rpccore.Rpc;
+import com.google.gapid.rpclib.rpccore.RpcException;
 import com.google.gapid.service.atom.Atom;
 import com.google.gapid.service.atom.DynamicAtom;
 import com.google.gapid.service.snippets.CanFollow;
@@ -51,6 +57,7 @@ import com.google.gapid.util.MouseAdapter;
 import com.google.gapid.util.Paths;
 import com.google.gapid.util.Scheduler;
 import com.google.gapid.util.SelectionHandler;
+import com.google.gapid.util.UiCallback;
 import com.google.gapid.views.Formatter.StylingString;
 import com.google.gapid.widgets.Balloon;
 import com.google.gapid.widgets.CopySources;
@@ -81,11 +88,11 @@ import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeItem;
 
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 public class AtomTree extends Composite implements Capture.Listener, AtomStream.Listener,
     ApiContext.Listener, AtomHierarchies.Listener, Thumbnails.Listener {
@@ -98,6 +105,8 @@ public class AtomTree extends Composite implements Capture.Listener, AtomStream.
   private final ImageProvider imageProvider;
   private final SelectionHandler<Tree> selectionHandler;
   private FilteredGroup root;
+  private final FutureController searchController = new SingleInFlight();
+  private AtomSearch search;
 
   public AtomTree(Composite parent, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
@@ -127,7 +136,8 @@ public class AtomTree extends Composite implements Capture.Listener, AtomStream.
     models.hierarchies.addListener(this);
     models.thumbs.addListener(this);
 
-    search.addListener(Events.Search, e -> search(e.text, (e.detail & Events.REGEX) != 0));
+    search.addListener(Events.Search, e ->
+        search(e.text, (e.detail & Events.REGEX) != 0, (e.detail & Events.PREVIOUS) == 0));
 
     selectionHandler = new SelectionHandler<Tree>(LOG, tree) {
       @Override
@@ -257,36 +267,57 @@ public class AtomTree extends Composite implements Capture.Listener, AtomStream.
     });
   }
 
-  private void search(String text, boolean regex) {
+  private void search(String text, boolean regex, boolean next) {
     if (root != null && !text.isEmpty()) {
-      FilteredGroup parent = root;
-      Object start = null;
+      CommandRange from = null;
       if (viewer.getTree().getSelectionCount() >= 1) {
-        start = viewer.getTree().getSelection()[0].getData();
+        Object start = viewer.getTree().getSelection()[0].getData();
         if (start instanceof FilteredGroup) {
-          parent = ((FilteredGroup)start).parent;
+          from = ((FilteredGroup)start).group.getRange();
         } else if (start instanceof AtomNode) {
-          parent = ((AtomNode)start).parent;
+          from = command(((AtomNode)start).index);
         } else {
           return;
         }
       }
 
-      Pattern pattern = SearchBox.getPattern(text, regex);
-      CommandRange range = parent.search(pattern, start, start instanceof AtomNode, true);
-      if (range == null && (parent != root || start != null)) {
-        range = root.search(pattern, null, false, false);
+      if (search == null || !search.isSearchFor(text, regex)) {
+        cancelSearch();
+        FilteringContext context = models.contexts.getSelectedContext();
+        search = new AtomSearch(models.atoms.getFormattedAtoms(), models.atoms.getTextIndex(),
+            context, models.hierarchies.getRoot(context), text, regex,
+            SearchBox.getPattern(text, regex));
       }
 
-      if (range != null) {
-        models.atoms.selectAtoms(range);
-      }
+      Rpc.listen(search.find(from, next), searchController,
+          new UiCallback<CommandRange, CommandRange>(this, LOG) {
+        @Override
+        protected CommandRange onRpcThread(Rpc.Result<CommandRange> result)
+            throws RpcException, ExecutionException {
+          return result.get();
+        }
+
+        @Override
+        protected void onUiThread(CommandRange range) {
+          if (range != null) {
+            models.atoms.selectAtoms(range);
+          }
+        }
+      });
+    }
+  }
+
+  private void cancelSearch() {
+    if (search != null) {
+      search.cancel();
+      search = null;
     }
   }
 
   @Override
   public void dispose() {
     imageProvider.reset();
+    cancelSearch();
     super.dispose();
   }
 
@@ -339,6 +370,7 @@ public class AtomTree extends Composite implements Capture.Listener, AtomStream.
   private void updateTree(boolean assumeLoading) {
     imageProvider.reset();
     root = null;
+    cancelSearch();
 
     if (assumeLoading || !models.atoms.isLoaded() || !models.contexts.isLoaded() ||
         !models.hierarchies.isLoaded()) {
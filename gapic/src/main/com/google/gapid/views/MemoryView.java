@@ -20,14 +20,25 @@ import static com.google.gapid.util.Loadable.MessageType.Info;
 import static com.google.gapid.util.Paths.command;
 import static com.google.gapid.util.Ranges.last;
 import static com.google.gapid.util.Ranges.memory;
+import static com.google.gapid.widgets.Widgets.createButton;
+import static com.google.gapid.widgets.Widgets.createCheckbox;
 import static com.google.gapid.widgets.Widgets.createLabel;
+import static com.google.gapid.widgets.Widgets.createTextbox;
 import static com.google.gapid.widgets.Widgets.ifNotDisposed;
 import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
-
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.UnsignedLong;
 import com.google.common.primitives.UnsignedLongs;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -37,15 +48,23 @@ import com.google.gapid.models.AtomStream.TypedObservation;
 import com.google.gapid.models.Capture;
 import com.google.gapid.models.Follower;
 import com.google.gapid.models.Models;
+import com.google.gapid.models.ObservationIndex;
 import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.Service.CommandRange;
 import com.google.gapid.proto.service.Service.MemoryInfo;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
+import com.google.gapid.service.atom.Atom;
+import com.google.gapid.service.atom.AtomList;
+import com.google.gapid.service.atom.Observation;
+import com.google.gapid.service.atom.Observations;
+import com.google.gapid.service.memory.MemoryRange;
+import com.google.gapid.util.BigPoint;
 import com.google.gapid.util.IntRange;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.Paths;
+import com.google.gapid.util.Scheduler;
 import com.google.gapid.widgets.InfiniteScrolledComposite;
 import com.google.gapid.widgets.LoadablePanel;
 import com.google.gapid.widgets.Theme;
@@ -54,6 +73,7 @@ import com.google.gapid.widgets.Widgets;
 import org.eclipse.jface.resource.JFaceResources;
 import org.eclipse.jface.viewers.ArrayContentProvider;
 import org.eclipse.jface.viewers.ComboViewer;
+import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jface.viewers.LabelProvider;
 import org.eclipse.jface.viewers.StructuredSelection;
 import org.eclipse.swt.SWT;
@@ -63,37 +83,58 @@ import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Text;
 
-import java.lang.ref.SoftReference;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class MemoryView extends Composite
     implements Capture.Listener, AtomStream.Listener, Follower.Listener {
+  private static final Logger LOG = Logger.getLogger(MemoryView.class.getName());
+  // The size of memory to compare in diff mode, if no observation is selected.
+  private static final long DIFF_WINDOW = 16 * 1024 * 1024;
+
   private final Client client;
   private final Models models;
   private final Selections selections;
+  private final SearchBar searchBar;
+  private final AccessesBar accessesBar;
   private final MemoryPanel memoryPanel;
   protected final LoadablePanel<InfiniteScrolledComposite> loading;
   protected final InfiniteScrolledComposite memoryScroll;
   private final State uiState = new State();
-  private MemoryDataModel memoryData;
+  private final PageCache pageCache;
+  private PagedMemoryDataModel memoryData;
+  private MemoryDiff diff;
+  private MemorySearch search;
 
   public MemoryView(Composite parent, Client client, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
     this.client = client;
     this.models = models;
+    this.pageCache = new PageCache(models.atoms);
 
     memoryPanel = new MemoryPanel(this, new Loadable() {
       @Override
@@ -113,21 +154,43 @@ public class MemoryView extends Composite
     }, widgets.theme);
     setLayout(new GridLayout(1, true));
 
-    selections = new Selections(this, this::setDataType, this::setObservation);
+    selections = new Selections(
+        this, this::setDataType, this::setObservation, this::setDiffMode, this::goToChange);
+    searchBar = new SearchBar(this, this::startSearch, this::goToAddress);
+    accessesBar = new AccessesBar(this, access -> models.atoms.selectAtoms(access.atom, 1));
     loading = LoadablePanel.create(this, widgets,
         panel -> new InfiniteScrolledComposite(panel, SWT.H_SCROLL | SWT.V_SCROLL, memoryPanel));
     memoryScroll = loading.getContents();
 
     selections.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+    searchBar.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+    accessesBar.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
     loading.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
 
+    memoryScroll.addContentListener(
+        SWT.MouseDoubleClick, e -> showAccesses(memoryScroll.getLocation(e)));
+
     models.capture.addListener(this);
     models.atoms.addListener(this);
     models.follower.addListener(this);
+    addListener(SWT.Dispose, e -> {
+      if (diff != null) {
+        diff.cancel();
+      }
+      if (search != null) {
+        search.cancel();
+      }
+    });
   }
 
   @Override
   public void onCaptureLoadingStart() {
+    pageCache.clear();
+    uiState.diffPath = null;
+    selections.setDiffMode(false);
+    updateDiff(0);
+    cancelSearch("");
+    accessesBar.clear();
     loading.showMessage(Info, Messages.LOADING_CAPTURE);
   }
 
@@ -183,12 +246,164 @@ public class MemoryView extends Composite
 
     loading.stopLoading();
     selections.setPool(uiState.pool);
-    memoryData = uiState.createMemoryDataModel(client);
+    memoryData = uiState.createMemoryDataModel(client, pageCache);
     selections.setDataType(uiState.dataType);
     memoryPanel.setModel(uiState.getMemoryModel(memoryData));
     memoryScroll.updateMinSize();
     getDisplay().asyncExec(() -> goToAddress(address));
     selections.updateSelectedObservation(address);
+    updateDiff(address);
+    if (search != null && !search.isFor(memoryData)) {
+      cancelSearch("");
+    }
+  }
+
+  private void setDiffMode(boolean enabled) {
+    uiState.diffPath = enabled ? uiState.atomPath : null;
+    updateDiff(getCurrentAddress());
+  }
+
+  /**
+   * Compares the memory after the selected atom against the memory after the atom selected when
+   * the diff mode was enabled. The selected observation is compared, or, if none is selected, a
+   * window of memory starting at the given address.
+   */
+  private void updateDiff(long address) {
+    MemoryDiff newDiff = null;
+    if (uiState.diffPath != null && uiState.isComplete() && memoryData != null &&
+        !uiState.diffPath.equals(uiState.atomPath)) {
+      PagedMemoryDataModel before =
+          uiState.createMemoryDataModel(client, pageCache, uiState.diffPath);
+      long maxOffset = memoryData.getEndAddress() - memoryData.getAddress();
+      long from, size;
+      TypedObservation obs = selections.getSelectedObservation();
+      if (obs != null) {
+        from = obs.getRange().getBase() - memoryData.getAddress();
+        size = obs.getRange().getSize();
+      } else {
+        from = address - memoryData.getAddress();
+        from -= Long.remainderUnsigned(from, FixedMemoryModel.BYTES_PER_ROW);
+        size = DIFF_WINDOW;
+      }
+      from = UnsignedLongs.min(from, maxOffset);
+      long last = from + UnsignedLongs.min(size - 1, maxOffset - from);
+
+      if (diff != null && diff.isFor(before, memoryData, from, last)) {
+        newDiff = diff;
+      } else if (size > 0) {
+        newDiff = new MemoryDiff(before, memoryData, from, last,
+            d -> scheduleIfNotDisposed(this, () -> onDiffProgress(d)));
+      }
+    }
+
+    if (diff != newDiff) {
+      if (diff != null) {
+        diff.cancel();
+      }
+      diff = newDiff;
+      if (diff != null) {
+        diff.start();
+      }
+    }
+    memoryPanel.setDiff(diff);
+    if (diff != null) {
+      selections.setDiffStatus(diff.getStatus(), true);
+    } else if (uiState.diffPath != null) {
+      selections.setDiffStatus(
+          "Select another command to compare to command " + uiState.diffPath.getIndex(), false);
+    } else {
+      selections.setDiffStatus("", false);
+    }
+    memoryScroll.redraw();
+  }
+
+  private void onDiffProgress(MemoryDiff progressed) {
+    if (progressed == diff) {
+      selections.setDiffStatus(diff.getStatus(), true);
+      memoryScroll.redraw();
+    }
+  }
+
+  private void goToChange(boolean forward) {
+    if (diff == null || memoryData == null) {
+      return;
+    }
+    long row = Long.divideUnsigned(getCurrentAddress() - memoryData.getAddress(),
+        FixedMemoryModel.BYTES_PER_ROW);
+    long change = diff.findChange(row, forward);
+    if (change >= 0) {
+      goToAddress(memoryData.getAddress() + change * FixedMemoryModel.BYTES_PER_ROW);
+    }
+  }
+
+  /**
+   * Searches the memory observed up to the selected atom for the given value.
+   */
+  private void startSearch(SearchType type, String value) {
+    cancelSearch("");
+    if (!uiState.isComplete() || memoryData == null) {
+      searchBar.setStatus("Select the memory to search");
+      return;
+    } else if (uiState.pool != 0) {
+      searchBar.setStatus("Only the application pool can be searched");
+      return;
+    }
+
+    byte[] pattern;
+    try {
+      pattern = type.encode(value);
+    } catch (NumberFormatException e) {
+      searchBar.setStatus("Invalid " + type.name() + " value: " + value);
+      return;
+    }
+    search = new MemorySearch(models.atoms.getObservationIndex(), models.atoms.getLoadedData(),
+        models.atoms.getLoadedAtomCount(), memoryData, pattern,
+        s -> scheduleIfNotDisposed(this, () -> onSearchProgress(s)));
+    search.start();
+    searchBar.setStatus(search.getStatus());
+  }
+
+  private void onSearchProgress(MemorySearch progressed) {
+    if (progressed == search) {
+      searchBar.addResults(search.getResults(searchBar.getResultCount()));
+      searchBar.setStatus(search.getStatus());
+    }
+  }
+
+  private void cancelSearch(String status) {
+    if (search != null) {
+      search.cancel();
+      search = null;
+    }
+    searchBar.clearResults();
+    searchBar.setStatus(status);
+  }
+
+  /**
+   * Lists the atoms that read or wrote the bytes shown at the given location in the memory panel.
+   */
+  private void showAccesses(BigPoint location) {
+    MemoryModel model = memoryPanel.getModel();
+    if (model == null || memoryData == null) {
+      return;
+    }
+    long row = location.y.divide(BigInteger.valueOf(memoryPanel.lineHeight)).longValue();
+    IntRange bytes = (row >= 0 && row < model.getLineCount()) ?
+        model.getBytesAt(memoryPanel.getColumn(location.x.intValue())) : null;
+    if (bytes == null) {
+      return;
+    }
+
+    long address = memoryData.getAddress() + row * FixedMemoryModel.BYTES_PER_ROW + bytes.from;
+    long size = bytes.to - bytes.from;
+    ObservationIndex index = models.atoms.getObservationIndex();
+    if (uiState.pool != 0) {
+      accessesBar.setStatus(address, size, "Only the application pool is observed");
+    } else if (index == null) {
+      accessesBar.setStatus(address, size, "The memory observations are still being indexed");
+    } else {
+      accessesBar.setAccesses(address, size, index.getAccesses(address, size));
+    }
   }
 
   private void goToAddress(long address) {
@@ -213,11 +428,16 @@ public class MemoryView extends Composite
     private final Combo typeCombo;
     private final Label obsLabel;
     private final ComboViewer obsCombo;
+    private final Button diffCheck;
+    private final Button previousChange;
+    private final Button nextChange;
+    private final Label diffStatus;
 
     public Selections(Composite parent, Consumer<DataType> dataTypeListener,
-        Consumer<TypedObservation> observationListener) {
+        Consumer<TypedObservation> observationListener, Consumer<Boolean> diffListener,
+        Consumer<Boolean> changeListener) {
       super(parent, SWT.NONE);
-      setLayout(new GridLayout(6, false));
+      setLayout(new GridLayout(10, false));
 
       createLabel(this, "Pool:").setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
       poolLabel = createLabel(this, "0");
@@ -242,8 +462,23 @@ public class MemoryView extends Composite
         }
       });
 
+      diffCheck = createCheckbox(this, "Diff", false,
+          e -> diffListener.accept(((Button)e.widget).getSelection()));
+      diffCheck.setToolTipText(
+          "Highlight the rows changed since the command selected when enabling the diff");
+      previousChange = createButton(this, "Previous Change", e -> changeListener.accept(false));
+      nextChange = createButton(this, "Next Change", e -> changeListener.accept(true));
+      diffStatus = createLabel(this, "");
+
+      diffCheck.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      previousChange.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      nextChange.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      diffStatus.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+
       obsLabel.setVisible(false);
       obsCombo.getCombo().setVisible(false);
+      previousChange.setEnabled(false);
+      nextChange.setEnabled(false);
     }
 
     private ComboViewer createObservationSelector() {
@@ -285,15 +520,172 @@ public class MemoryView extends Composite
       }
     }
 
+    public TypedObservation getSelectedObservation() {
+      Object obs = ((IStructuredSelection)obsCombo.getSelection()).getFirstElement();
+      return (obs == TypedObservation.NULL_OBSERVATION) ? null : (TypedObservation)obs;
+    }
+
+    public void setDiffMode(boolean enabled) {
+      diffCheck.setSelection(enabled);
+    }
+
+    public void setDiffStatus(String status, boolean navigable) {
+      diffStatus.setText(status);
+      diffStatus.requestLayout();
+      previousChange.setEnabled(navigable);
+      nextChange.setEnabled(navigable);
+    }
+
     public void setPool(int pool) {
       poolLabel.setText(String.valueOf(pool));
       poolLabel.requestLayout();
     }
   }
 
+  private static class SearchBar extends Composite {
+    private final Combo typeCombo;
+    private final Text valueText;
+    private final Combo resultsCombo;
+    private final Label status;
+    private final List<Long> results = Lists.newArrayList();
+
+    public SearchBar(Composite parent, BiConsumer<SearchType, String> searchListener,
+        Consumer<Long> resultListener) {
+      super(parent, SWT.NONE);
+      setLayout(new GridLayout(6, false));
+
+      createLabel(this, "Find:").setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      typeCombo = new Combo(this, SWT.READ_ONLY);
+      for (SearchType type : SearchType.values()) {
+        typeCombo.add(type.name());
+      }
+      typeCombo.select(0);
+      valueText = createTextbox(this, "");
+      valueText.setToolTipText("Hex bytes, text or a number to find in the observed memory");
+      Button find = createButton(this, "Find", e -> searchListener.accept(
+          SearchType.values()[typeCombo.getSelectionIndex()], valueText.getText()));
+      resultsCombo = new Combo(this, SWT.READ_ONLY);
+      resultsCombo.setVisibleItemCount(10);
+      status = createLabel(this, "");
+
+      typeCombo.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      GridData textData = new GridData(SWT.FILL, SWT.CENTER, false, false);
+      textData.widthHint = 200;
+      valueText.setLayoutData(textData);
+      find.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      resultsCombo.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      status.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+
+      valueText.addListener(SWT.DefaultSelection, e -> searchListener.accept(
+          SearchType.values()[typeCombo.getSelectionIndex()], valueText.getText()));
+      resultsCombo.addListener(SWT.Selection, e -> {
+        int index = resultsCombo.getSelectionIndex();
+        if (index >= 0) {
+          resultListener.accept(results.get(index));
+        }
+      });
+      resultsCombo.setEnabled(false);
+    }
+
+    public int getResultCount() {
+      return results.size();
+    }
+
+    public void addResults(long[] addresses) {
+      for (long address : addresses) {
+        results.add(address);
+        resultsCombo.add(String.format("0x%016x", address));
+      }
+      resultsCombo.setEnabled(!results.isEmpty());
+      resultsCombo.requestLayout();
+    }
+
+    public void clearResults() {
+      results.clear();
+      resultsCombo.removeAll();
+      resultsCombo.setEnabled(false);
+    }
+
+    public void setStatus(String text) {
+      status.setText(text);
+      status.requestLayout();
+    }
+  }
+
+  private static class AccessesBar extends Composite {
+    private static final int MAX_ACCESSES = 1000;
+
+    private final Label label;
+    private final ComboViewer accessesCombo;
+    private final Label status;
+
+    public AccessesBar(Composite parent, Consumer<ObservationIndex.Access> accessListener) {
+      super(parent, SWT.NONE);
+      setLayout(new GridLayout(3, false));
+
+      label = createLabel(this, "Double-click a value to list the commands that accessed it");
+      accessesCombo = new ComboViewer(this, SWT.READ_ONLY);
+      accessesCombo.setContentProvider(ArrayContentProvider.getInstance());
+      accessesCombo.setLabelProvider(new LabelProvider());
+      accessesCombo.getCombo().setVisibleItemCount(10);
+      status = createLabel(this, "");
+
+      label.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      accessesCombo.getCombo().setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+      status.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+
+      accessesCombo.getCombo().addListener(SWT.Selection, e -> {
+        Object access = ((IStructuredSelection)accessesCombo.getSelection()).getFirstElement();
+        if (access != null) {
+          accessListener.accept((ObservationIndex.Access)access);
+        }
+      });
+      accessesCombo.getCombo().setVisible(false);
+    }
+
+    public void setAccesses(long address, long size, List<ObservationIndex.Access> accesses) {
+      long writes = accesses.stream().filter(access -> access.write).count();
+      long reads = accesses.size() - writes;
+      String text = reads + " read" + (reads == 1 ? "" : "s") + ", " + writes + " write" +
+          (writes == 1 ? "" : "s");
+      if (accesses.size() > MAX_ACCESSES) {
+        text += " (showing the first " + MAX_ACCESSES + ")";
+        accesses = accesses.subList(0, MAX_ACCESSES);
+      }
+      setLabel(address, size);
+      accessesCombo.setInput(accesses);
+      accessesCombo.getCombo().setVisible(!accesses.isEmpty());
+      status.setText(text);
+      requestLayout();
+    }
+
+    public void setStatus(long address, long size, String text) {
+      setLabel(address, size);
+      accessesCombo.setInput(Collections.emptyList());
+      accessesCombo.getCombo().setVisible(false);
+      status.setText(text);
+      requestLayout();
+    }
+
+    public void clear() {
+      label.setText("Double-click a value to list the commands that accessed it");
+      accessesCombo.setInput(Collections.emptyList());
+      accessesCombo.getCombo().setVisible(false);
+      status.setText("");
+      requestLayout();
+    }
+
+    private void setLabel(long address, long size) {
+      label.setText("Accesses of " + size + " byte" + (size == 1 ? "" : "s") +
+          String.format(" at 0x%016x:", address));
+    }
+  }
+
   private static class State {
     public DataType dataType = DataType.Bytes;
     public Path.Command atomPath;
+    // The atom to compare the memory against, if the diff mode is enabled.
+    public Path.Command diffPath;
     public int pool = -1;
     public long offset = -1;
     public long lastAddress;
@@ -328,15 +720,20 @@ public class MemoryView extends Composite
       return atomPath != null && offset >= 0 && pool >= 0;
     }
 
-    public MemoryDataModel createMemoryDataModel(Client client) {
-      final Path.Command curAtomPath = atomPath;
-      final int curPool = pool;
-      PagedMemoryDataModel.MemoryFetcher fetcher = (address, count) ->
-          Futures.transform(client.get(Paths.memoryAfter(curAtomPath, curPool, address, count)),
-              value -> value.getMemoryInfo());
+    public PagedMemoryDataModel createMemoryDataModel(Client client, PageCache cache) {
+      return createMemoryDataModel(client, cache, atomPath);
+    }
 
+    public PagedMemoryDataModel createMemoryDataModel(
+        Client client, PageCache cache, Path.Command curAtomPath) {
+      final int curPool = pool;
+      PagedMemoryDataModel.MemoryFetcher fetcher = ranges -> client.getAll(ranges.stream()
+          .map(range -> Paths.memoryAfter(curAtomPath, curPool, range.getBase(), range.getSize()))
+          .collect(Collectors.toList())).stream()
+          .map(value -> Futures.transform(value, Service.Value::getMemoryInfo))
+          .collect(Collectors.toList());
 
-      return new PagedMemoryDataModel(fetcher, offset, lastAddress);
+      return new PagedMemoryDataModel(fetcher, cache, curAtomPath, curPool, offset, lastAddress);
     }
 
     public MemoryModel getMemoryModel(MemoryDataModel data) {
@@ -399,6 +796,7 @@ public class MemoryView extends Composite
     private final Theme theme;
     private final Font font;
     private MemoryModel model;
+    private MemoryDiff diff;
 
     public MemoryPanel(Composite parent, Loadable loadable, Theme theme) {
       this.loadable = loadable;
@@ -418,6 +816,22 @@ public class MemoryView extends Composite
       this.model = model;
     }
 
+    public void setDiff(MemoryDiff diff) {
+      this.diff = diff;
+    }
+
+    public MemoryModel getModel() {
+      return model;
+    }
+
+    /**
+     * @return the column of the character at the given x offset.
+     */
+    public int getColumn(int x) {
+      int pos = Arrays.binarySearch(charOffset, x);
+      return ((pos >= 0) ? pos : -pos - 2);
+    }
+
     @Override
     public BigInteger getWidth() {
       return (model == null) ?
@@ -446,6 +860,16 @@ public class MemoryView extends Composite
           .max(BigInteger.ZERO).min(BigInteger.valueOf(model.getLineCount())).longValueExact();
 
       Color background = gc.getBackground();
+      if (diff != null) {
+        gc.setBackground(theme.memoryDiffHighlight());
+        for (long[] run : diff.getChanges(startRow, endRow)) {
+          long first = Math.max(startRow, run[0]), last = Math.min(endRow, run[1]) - 1;
+          for (IntRange range : model.getDataRanges()) {
+            highlight(gc, yOffset, new Selection(range, range.from, first, range.to, last));
+          }
+        }
+      }
+
       gc.setBackground(theme.memoryReadHighlight());
       for (Selection read : model.getReads(startRow, endRow, loadable)) {
         highlight(gc, yOffset, read);
@@ -458,10 +882,9 @@ public class MemoryView extends Composite
       gc.setBackground(background);
 
       int y = getY(startRow, yOffset);
-      Iterator<Segment> it = model.getLines(startRow, endRow, loadable);
+      Iterator<String> it = model.getLines(startRow, endRow, loadable);
       for (; it.hasNext(); y += lineHeight) {
-        Segment segment = it.next();
-        gc.drawString(new String(segment.array, segment.offset, segment.count), 0, y, true);
+        gc.drawString(it.next(), 0, y, true);
       }
     }
 
@@ -494,15 +917,26 @@ public class MemoryView extends Composite
 
   private static class PagedMemoryDataModel implements MemoryDataModel {
     private static final int PAGE_SIZE = 0x10000;
+    private static final int MAX_READ_AHEAD = 16;
 
     private final MemoryFetcher fetcher;
+    private final PageCache cache;
+    private final Path.Command atomPath;
+    private final int pool;
     private final long address;
     private final long lastAddress;
 
-    private final Map<Long, SoftReference<ListenableFuture<MemoryInfo>>> cache = Maps.newHashMap();
+    // The pages last requested, to detect the scroll direction, and the number of pages to read
+    // ahead, positive when scrolling down, negative when scrolling up. Only used on the UI thread.
+    private long lastFirstPage = -1, lastLastPage = -1;
+    private int readAhead = 0;
 
-    public PagedMemoryDataModel(MemoryFetcher fetcher, long address, long lastAddress) {
+    public PagedMemoryDataModel(MemoryFetcher fetcher, PageCache cache, Path.Command atomPath,
+        int pool, long address, long lastAddress) {
       this.fetcher = fetcher;
+      this.cache = cache;
+      this.atomPath = atomPath;
+      this.pool = pool;
       this.address = address;
       this.lastAddress = lastAddress;
     }
@@ -524,14 +958,17 @@ public class MemoryView extends Composite
 
       long firstPage = getPageForOffset(offset);
       long lastPage = getPageForOffset(offset + length - 1);
+      List<ListenableFuture<MemorySegment>> pages = getPages(firstPage, lastPage, true);
+      readAhead(firstPage, lastPage);
       if (firstPage == lastPage) {
-        return getPage(firstPage, getOffsetInPage(offset), length);
+        return getSegment(pages.get(0), getOffsetInPage(offset), length);
       }
       List<ListenableFuture<MemorySegment>> futures = Lists.newArrayList();
-      futures.add(getPage(firstPage, getOffsetInPage(offset), PAGE_SIZE - getOffsetInPage(offset)));
-      for (long page = firstPage + 1, left = length - PAGE_SIZE + getOffsetInPage(offset);
-          page <= lastPage; page++, left -= PAGE_SIZE) {
-        futures.add(getPage(page, 0, (int)Math.min(left, PAGE_SIZE)));
+      futures.add(getSegment(
+          pages.get(0), getOffsetInPage(offset), PAGE_SIZE - getOffsetInPage(offset)));
+      for (int page = 1, left = length - PAGE_SIZE + getOffsetInPage(offset);
+          page < pages.size(); page++, left -= PAGE_SIZE) {
+        futures.add(getSegment(pages.get(page), 0, Math.min(left, PAGE_SIZE)));
       }
 
       final int totalLength = length;
@@ -539,11 +976,11 @@ public class MemoryView extends Composite
           Futures.allAsList(futures), segments -> MemorySegment.combine(segments, totalLength));
     }
 
-    private static long getPageForOffset(long offset) {
+    public static long getPageForOffset(long offset) {
       return Long.divideUnsigned(offset, PAGE_SIZE);
     }
 
-    private static long getOffsetForPage(long page) {
+    public static long getOffsetForPage(long page) {
       return page * PAGE_SIZE;
     }
 
@@ -551,62 +988,926 @@ public class MemoryView extends Composite
       return (int)Long.remainderUnsigned(offset, PAGE_SIZE);
     }
 
-    private ListenableFuture<MemorySegment> getPage(long page, int offset, int length) {
-      ListenableFuture<Service.MemoryInfo> mem = getFromCache(page);
-      if (mem == null) {
+    /**
+     * Returns the given range of pages, requesting all the ones that are not cached, in one batch.
+     * The requested pages are only added to the cache if {@code keep} is set, so bulk reads of
+     * memory do not evict the pages being viewed.
+     */
+    public List<ListenableFuture<MemorySegment>> getPages(
+        long firstPage, long lastPage, boolean keep) {
+      List<ListenableFuture<MemorySegment>> result = Lists.newArrayList();
+      List<Integer> missing = Lists.newArrayList();
+      List<Service.MemoryRange> ranges = Lists.newArrayList();
+      for (long page = firstPage; page <= lastPage; page++) {
         long base = address + getOffsetForPage(page);
-        mem = fetcher.get(base, (int)UnsignedLongs.min(lastAddress - base, PAGE_SIZE - 1) + 1);
-        addToCache(page, mem);
+        PageKey key = new PageKey(atomPath, pool, base);
+        ListenableFuture<MemorySegment> mem = keep ? cache.get(key) : cache.peek(key);
+        if (mem != null && !keep) {
+          // The caller may cancel the pages it no longer needs, but not the cached ones.
+          mem = Futures.nonCancellationPropagating(mem);
+        } else if (mem == null) {
+          missing.add(result.size());
+          ranges.add(Service.MemoryRange.newBuilder()
+              .setBase(base)
+              .setSize(UnsignedLongs.min(lastAddress - base, PAGE_SIZE - 1) + 1)
+              .build());
+        }
+        result.add(mem);
       }
-      return Futures.transform(mem, memory -> new MemorySegment(memory).subSegment(offset, length));
-    }
 
-    private ListenableFuture<Service.MemoryInfo> getFromCache(long page) {
-      ListenableFuture<Service.MemoryInfo> result = null;
-      synchronized (cache) {
-        SoftReference<ListenableFuture<MemoryInfo>> reference = cache.get(page);
-        if (reference != null) {
-          result = reference.get();
-          if (result == null) {
-            cache.remove(page);
+      if (!ranges.isEmpty()) {
+        List<ListenableFuture<MemoryInfo>> fetched = fetcher.get(ranges);
+        for (int i = 0; i < missing.size(); i++) {
+          int index = missing.get(i);
+          ListenableFuture<MemorySegment> page =
+              Futures.transform(fetched.get(i), info -> new MemorySegment(info));
+          result.set(index, page);
+          if (keep) {
+            cache.put(new PageKey(atomPath, pool, ranges.get(i).getBase()), page);
           }
         }
       }
       return result;
     }
 
-    private void addToCache(long page, ListenableFuture<MemoryInfo> data) {
-      synchronized (cache) {
-        cache.put(page, new SoftReference<ListenableFuture<MemoryInfo>>(data));
+    /**
+     * Requests the pages following the given pages in the direction the view is being scrolled.
+     * The number of pages read ahead doubles while the view keeps scrolling in the same direction.
+     * The pages are requested in their own batch, so the visible pages are not held up by them.
+     */
+    private void readAhead(long firstPage, long lastPage) {
+      if (lastFirstPage >= 0 && firstPage > lastFirstPage) {
+        readAhead = (readAhead > 0) ? Math.min(2 * readAhead, MAX_READ_AHEAD) : 1;
+      } else if (lastFirstPage >= 0 && lastPage < lastLastPage) {
+        readAhead = (readAhead < 0) ? Math.max(2 * readAhead, -MAX_READ_AHEAD) : -1;
+      } else if (firstPage == lastFirstPage && lastPage == lastLastPage) {
+        return; // Repaint of the same pages, nothing more to read.
+      }
+      lastFirstPage = firstPage;
+      lastLastPage = lastPage;
+
+      long maxPage = getPageForOffset(lastAddress - address);
+      if (readAhead > 0 && lastPage < maxPage) {
+        getPages(lastPage + 1, Math.min(maxPage, lastPage + readAhead), true);
+      } else if (readAhead < 0 && firstPage > 0) {
+        getPages(Math.max(0, firstPage + readAhead), firstPage - 1, true);
       }
     }
 
+    private static ListenableFuture<MemorySegment> getSegment(
+        ListenableFuture<MemorySegment> page, int offset, int length) {
+      return Futures.transform(page, memory -> memory.subSegment(offset, length));
+    }
+
+    /**
+     * @return whether the given model shows the same range of the same pool as this model.
+     */
+    public boolean isSameMemory(PagedMemoryDataModel other) {
+      return pool == other.pool && address == other.address && lastAddress == other.lastAddress;
+    }
+
     @Override
     public MemoryDataModel align(int byteAlign) {
       return this;
     }
 
     public interface MemoryFetcher {
-      ListenableFuture<MemoryInfo> get(long address, long count);
+      List<ListenableFuture<MemoryInfo>> get(List<Service.MemoryRange> ranges);
+    }
+  }
+
+  /**
+   * Key of a cached page: the memory at the page's base address in a pool after an atom.
+   */
+  private static class PageKey {
+    public final Path.Command atomPath;
+    public final int pool;
+    public final long base;
+
+    public PageKey(Path.Command atomPath, int pool, long base) {
+      this.atomPath = atomPath;
+      this.pool = pool;
+      this.base = base;
+    }
+
+    public PageKey atAtom(long index) {
+      return new PageKey(atomPath.toBuilder().setIndex(index).build(), pool, base);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof PageKey)) {
+        return false;
+      }
+      PageKey o = (PageKey)obj;
+      return pool == o.pool && base == o.base && atomPath.equals(o.atomPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return (31 * atomPath.hashCode() + pool) * 31 + Long.hashCode(base);
+    }
+  }
+
+  /**
+   * A bounded, least recently used cache of the memory pages fetched by the data models of the
+   * view, which outlives the models, so pages are kept across atom selections. A page of the
+   * application pool cached after one atom is also used after a nearby atom, if none of the atoms
+   * in between have any observations touching the page, since the application memory can only
+   * change through observations.
+   */
+  private static class PageCache {
+    private static final int MAX_PAGES = 512; // 32MB of 64KiB pages.
+    private static final int APPLICATION_POOL = 0;
+
+    private final AtomStream atoms;
+    private final Cache<PageKey, ListenableFuture<MemorySegment>> pages;
+    // The atoms after which each page is cached, keyed by the page at atom 0. Guarded by this.
+    private final Map<PageKey, NavigableSet<Long>> cachedAtoms = Maps.newHashMap();
+
+    public PageCache(AtomStream atoms) {
+      this.atoms = atoms;
+      this.pages = CacheBuilder.newBuilder()
+          .maximumSize(MAX_PAGES)
+          .removalListener(this::onRemoval)
+          .build();
+    }
+
+    /**
+     * @return the cached page for the given key, or {@code null}, if it needs to be fetched.
+     */
+    public ListenableFuture<MemorySegment> get(PageKey key) {
+      ListenableFuture<MemorySegment> result = pages.getIfPresent(key);
+      if (result == null && key.pool == APPLICATION_POOL) {
+        result = reuse(key);
+      }
+      return result;
+    }
+
+    /**
+     * @return the page cached for the given key, without reusing the page of another atom.
+     */
+    public ListenableFuture<MemorySegment> peek(PageKey key) {
+      return pages.getIfPresent(key);
+    }
+
+    public void put(PageKey key, ListenableFuture<MemorySegment> page) {
+      pages.put(key, page);
+      synchronized (this) {
+        cachedAtoms.computeIfAbsent(key.atAtom(0), k -> new TreeSet<Long>())
+            .add(key.atomPath.getIndex());
+      }
+      Futures.addCallback(page, new FutureCallback<MemorySegment>() {
+        @Override
+        public void onSuccess(MemorySegment result) {
+          // Nothing to do.
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // Don't hold on to failures, so the page is fetched again.
+          pages.asMap().remove(key, page);
+        }
+      });
+    }
+
+    public void clear() {
+      pages.invalidateAll();
+    }
+
+    private void onRemoval(RemovalNotification<PageKey, ListenableFuture<MemorySegment>> n) {
+      if (n.getCause() == RemovalCause.REPLACED) {
+        return; // The page is still cached after the atom.
+      }
+      PageKey key = n.getKey();
+      synchronized (this) {
+        PageKey page = key.atAtom(0);
+        NavigableSet<Long> indices = cachedAtoms.get(page);
+        if (indices != null && indices.remove(key.atomPath.getIndex()) && indices.isEmpty()) {
+          cachedAtoms.remove(page);
+        }
+      }
+    }
+
+    private ListenableFuture<MemorySegment> reuse(PageKey key) {
+      // Pages are only reused once the observations have been indexed, as scanning the
+      // observations of the atoms in between would decode them on the UI thread.
+      ObservationIndex index = atoms.getObservationIndex();
+      if (index == null) {
+        return null;
+      }
+
+      long atom = key.atomPath.getIndex();
+      Long before, after;
+      synchronized (this) {
+        NavigableSet<Long> indices = cachedAtoms.get(key.atAtom(0));
+        if (indices == null) {
+          return null;
+        }
+        before = indices.lower(atom);
+        after = indices.higher(atom);
+      }
+
+      // Try the closest of the two atoms first.
+      if (before != null && after != null && after - atom < atom - before) {
+        Long swap = before;
+        before = after;
+        after = swap;
+      }
+
+      for (Long from : new Long[] { before, after }) {
+        if (from == null) {
+          continue;
+        }
+        ListenableFuture<MemorySegment> source = pages.getIfPresent(key.atAtom(from));
+        if (source == null || !source.isDone() || source.isCancelled()) {
+          continue;
+        }
+        MemorySegment page;
+        try {
+          page = Futures.getDone(source);
+        } catch (ExecutionException e) {
+          continue;
+        }
+        if (isUnchanged(
+            index, Math.min(from, atom), Math.max(from, atom), key.base, page.length)) {
+          ListenableFuture<MemorySegment> result =
+              Futures.immediateFuture(withObservations(page, atom, key.base));
+          put(key, result);
+          return result;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return whether the memory of the given range is the same after the two given atoms, i.e.
+     * none of the atoms in between observed any of it.
+     */
+    private boolean isUnchanged(
+        ObservationIndex index, long fromAtom, long toAtom, long base, long size) {
+      if (!atoms.isLoaded() || toAtom >= atoms.getAtomCount()) {
+        return false;
+      }
+      return !index.isAccessed(base, size, fromAtom + 1, toAtom);
+    }
+
+    /**
+     * @return the given page, with the reads and writes of the given atom.
+     */
+    private MemorySegment withObservations(MemorySegment page, long atom, long base) {
+      List<Service.MemoryRange> reads = Lists.newArrayList();
+      List<Service.MemoryRange> writes = Lists.newArrayList();
+      for (TypedObservation obs : atoms.getObservations(atom)) {
+        MemoryRange range = obs.getRange();
+        if (overlaps(range, base, page.length)) {
+          long start = Math.max(0, range.getBase() - base);
+          long end = Math.min(page.length, range.getBase() - base + range.getSize());
+          (obs.isRead() ? reads : writes).add(memory(start, end - start));
+        }
+      }
+      return page.withObservations(reads, writes);
+    }
+
+    private static boolean overlaps(MemoryRange range, long base, long size) {
+      return Long.compareUnsigned(range.getBase(), base + size) < 0 &&
+          Long.compareUnsigned(base, range.getBase() + range.getSize()) < 0;
+    }
+  }
+
+  /**
+   * The rows of a range of memory that differ between the memory after two atoms. The pages of the
+   * range are fetched in batches and compared in the background, a batch at a time, with the pages
+   * of a batch compared in parallel. Rows are compared a word at a time.
+   */
+  private static class MemoryDiff {
+    private static final int PAGES_PER_BATCH = 16;
+    private static final int BYTES_PER_ROW = FixedMemoryModel.BYTES_PER_ROW;
+    private static final int ROWS_PER_PAGE = PagedMemoryDataModel.PAGE_SIZE / BYTES_PER_ROW;
+
+    public final Path.Command before, after;
+    private final PagedMemoryDataModel beforeData, afterData;
+    private final long firstPage, lastPage;
+    private final Consumer<MemoryDiff> onProgress;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    // All the fields below are guarded by this. The changed rows are kept as sorted runs.
+    private long[] runStarts = new long[64], runEnds = new long[64];
+    private int runCount = 0;
+    private long comparedPages = 0;
+    private boolean done = false, failed = false;
+
+    public MemoryDiff(PagedMemoryDataModel beforeData, PagedMemoryDataModel afterData,
+        long fromOffset, long lastOffset, Consumer<MemoryDiff> onProgress) {
+      this.before = beforeData.atomPath;
+      this.after = afterData.atomPath;
+      this.beforeData = beforeData;
+      this.afterData = afterData;
+      this.firstPage = PagedMemoryDataModel.getPageForOffset(fromOffset);
+      this.lastPage = PagedMemoryDataModel.getPageForOffset(lastOffset);
+      this.onProgress = onProgress;
+    }
+
+    public boolean isFor(PagedMemoryDataModel newBefore, PagedMemoryDataModel newAfter,
+        long fromOffset, long lastOffset) {
+      return !cancelled.get() && !failed && before.equals(newBefore.atomPath) &&
+          after.equals(newAfter.atomPath) && beforeData.isSameMemory(newBefore) &&
+          firstPage == PagedMemoryDataModel.getPageForOffset(fromOffset) &&
+          lastPage == PagedMemoryDataModel.getPageForOffset(lastOffset);
+    }
+
+    public void start() {
+      Scheduler.EXECUTOR.execute(this::run);
+    }
+
+    public void cancel() {
+      cancelled.set(true);
+    }
+
+    private void run() {
+      long start = System.nanoTime();
+      Batch batch = new Batch(firstPage), nextBatch = null;
+      for (long page = firstPage; batch != null && !cancelled.get(); ) {
+        long next = page + PAGES_PER_BATCH;
+        // Request the next batch, while comparing this one.
+        nextBatch = (next <= lastPage && next > page) ? new Batch(next) : null;
+        List<MemorySegment> befores, afters;
+        try {
+          befores = batch.before.get();
+          afters = batch.after.get();
+        } catch (InterruptedException | ExecutionException e) {
+          LOG.log(WARNING, "Failed to fetch memory to compare", e);
+          synchronized (this) {
+            failed = true;
+          }
+          break;
+        }
+
+        long firstRow = page * ROWS_PER_PAGE;
+        long[][] changed = IntStream.range(0, befores.size()).parallel()
+            .mapToObj(i -> cancelled.get() ? new long[0] : compare(befores.get(i), afters.get(i),
+                firstRow + (long)i * ROWS_PER_PAGE))
+            .toArray(long[][]::new);
+        synchronized (this) {
+          for (long[] rows : changed) {
+            for (long row : rows) {
+              add(row);
+            }
+          }
+          comparedPages += befores.size();
+        }
+        onProgress.accept(this);
+        page = next;
+        batch = nextBatch;
+      }
+      // Stop fetching the pages of the batches that will not be compared.
+      for (Batch pending : new Batch[] { batch, nextBatch }) {
+        if (pending != null) {
+          pending.cancel();
+        }
+      }
+
+      synchronized (this) {
+        done = !cancelled.get() && !failed;
+        if (done) {
+          LOG.log(FINE, "Compared {0} pages of memory in {1}ms, {2} runs of changed rows",
+              new Object[] { comparedPages, NANOSECONDS.toMillis(System.nanoTime() - start),
+              runCount });
+        }
+      }
+      onProgress.accept(this);
+    }
+
+    /**
+     * The pages of a batch, after the two atoms.
+     */
+    private class Batch {
+      public final ListenableFuture<List<MemorySegment>> before, after;
+
+      public Batch(long page) {
+        long end = Math.min(lastPage, page + PAGES_PER_BATCH - 1);
+        before = Futures.allAsList(beforeData.getPages(page, end, false));
+        after = Futures.allAsList(afterData.getPages(page, end, false));
+      }
+
+      public void cancel() {
+        before.cancel(true);
+        after.cancel(true);
+      }
+    }
+
+    /**
+     * @return the changed rows of the two pages, in order.
+     */
+    private static long[] compare(MemorySegment a, MemorySegment b, long firstRow) {
+      int length = Math.max(a.length, b.length), common = Math.min(a.length, b.length);
+      BitSet changed = a.known.get(a.offset, a.offset + common);
+      changed.xor(b.known.get(b.offset, b.offset + common));
+      ByteBuffer da = ByteBuffer.wrap(a.data, a.offset, common).slice();
+      ByteBuffer db = ByteBuffer.wrap(b.data, b.offset, common).slice();
+      int pos = 0;
+      for (; pos + 8 <= common; pos += 8) {
+        if (da.getLong(pos) != db.getLong(pos)) {
+          changed.set(pos);
+        }
+      }
+      for (; pos < common; pos++) {
+        if (da.get(pos) != db.get(pos)) {
+          changed.set(pos);
+        }
+      }
+      if (common < length) {
+        changed.set(common, length);
+      }
+
+      long[] result = new long[(length + BYTES_PER_ROW - 1) / BYTES_PER_ROW];
+      int count = 0;
+      for (int i = changed.nextSetBit(0); i >= 0;
+          i = changed.nextSetBit((i / BYTES_PER_ROW + 1) * BYTES_PER_ROW)) {
+        result[count++] = firstRow + i / BYTES_PER_ROW;
+      }
+      return Arrays.copyOf(result, count);
+    }
+
+    private void add(long row) {
+      if (runCount > 0 && runEnds[runCount - 1] == row) {
+        runEnds[runCount - 1] = row + 1;
+        return;
+      }
+      if (runCount == runStarts.length) {
+        runStarts = Arrays.copyOf(runStarts, 2 * runCount);
+        runEnds = Arrays.copyOf(runEnds, 2 * runCount);
+      }
+      runStarts[runCount] = row;
+      runEnds[runCount] = row + 1;
+      runCount++;
+    }
+
+    /**
+     * @return the runs of changed rows within the given rows, as {start, end} pairs.
+     */
+    public synchronized List<long[]> getChanges(long startRow, long endRow) {
+      List<long[]> result = Lists.newArrayList();
+      for (int i = Math.max(0, floor(startRow)); i < runCount && runStarts[i] < endRow; i++) {
+        if (runEnds[i] > startRow) {
+          result.add(new long[] { runStarts[i], runEnds[i] });
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return the first row of the run of changes following, or preceding, the given row, or -1
+     * if there is no such change, or it has not been found yet.
+     */
+    public synchronized long findChange(long row, boolean forward) {
+      int pos = floor(row);
+      if (forward) {
+        return (pos + 1 < runCount) ? runStarts[pos + 1] : -1;
+      } else if (pos >= 0 && runStarts[pos] < row) {
+        return runStarts[pos];
+      }
+      return (pos > 0) ? runStarts[pos - 1] : -1;
+    }
+
+    /**
+     * @return the index of the last run starting at or before the given row, or -1.
+     */
+    private int floor(long row) {
+      int pos = Arrays.binarySearch(runStarts, 0, runCount, row);
+      return (pos >= 0) ? pos : -pos - 2;
+    }
+
+    public synchronized String getStatus() {
+      long rows = 0;
+      for (int i = 0; i < runCount; i++) {
+        rows += runEnds[i] - runStarts[i];
+      }
+      String result = rows + " changed row" + (rows == 1 ? "" : "s") + " since command " +
+          before.getIndex();
+      if (failed) {
+        return result + " (failed)";
+      } else if (!done) {
+        return result + " (" + (100 * comparedPages / (lastPage - firstPage + 1)) + "%)";
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A search of the observed memory after an atom for a byte pattern, run in the background. The
+   * ranges of the observations of the atoms up to the atom are merged, and the pages covering them
+   * are fetched in batches and searched with Boyer-Moore-Horspool, each batch split across the
+   * fork/join pool. Only matches of known bytes are reported.
+   */
+  private static class MemorySearch {
+    private static final int PAGES_PER_BATCH = 16;
+    private static final int SPLITS_PER_BATCH = 8;
+    private static final int MAX_RESULTS = 10000;
+
+    private final ObservationIndex index;
+    private final AtomList atoms;
+    private final int atomCount;
+    private final PagedMemoryDataModel data;
+    private final byte[] pattern;
+    private final int[] skip = new int[256];
+    private final Consumer<MemorySearch> onProgress;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    // All the fields below are guarded by this.
+    private long[] results = new long[64];
+    private int resultCount = 0;
+    private long searchedPages = 0, totalPages = -1;
+    private boolean done = false, failed = false;
+
+    /**
+     * @param index the observation index of the atoms, or {@code null} if not yet built, in which
+     *     case the observations are collected from the first atomCount atoms of the list.
+     */
+    public MemorySearch(ObservationIndex index, AtomList atoms, int atomCount,
+        PagedMemoryDataModel data, byte[] pattern, Consumer<MemorySearch> onProgress) {
+      this.index = index;
+      this.atoms = atoms;
+      this.atomCount = atomCount;
+      this.data = data;
+      this.pattern = pattern;
+      this.onProgress = onProgress;
+      Arrays.fill(skip, pattern.length);
+      for (int i = 0; i < pattern.length - 1; i++) {
+        skip[pattern[i] & 0xFF] = pattern.length - 1 - i;
+      }
+    }
+
+    /**
+     * @return whether this search is of the same memory, after the same atom, as the given model.
+     */
+    public boolean isFor(PagedMemoryDataModel other) {
+      return data.atomPath.equals(other.atomPath) && data.isSameMemory(other);
+    }
+
+    public void start() {
+      Scheduler.EXECUTOR.execute(this::run);
+    }
+
+    public void cancel() {
+      cancelled.set(true);
+    }
+
+    private void run() {
+      long start = System.nanoTime();
+      long[] pages = getObservedPages();
+      synchronized (this) {
+        totalPages = (pages == null) ? 0 : pages.length;
+      }
+      onProgress.accept(this);
+
+      byte[] tail = new byte[0];
+      BitSet tailKnown = new BitSet();
+      long lastPage = -1;
+      Batch batch = (pages == null) ? null : new Batch(pages, 0), next = null;
+      while (batch != null && !cancelled.get()) {
+        next = (batch.end < pages.length) ? new Batch(pages, batch.end) : null;
+        List<MemorySegment> segments;
+        try {
+          segments = batch.pages.get();
+        } catch (InterruptedException | ExecutionException e) {
+          LOG.log(WARNING, "Failed to fetch memory to search", e);
+          synchronized (this) {
+            failed = true;
+          }
+          break;
+        }
+
+        // Prepend the end of the previous batch, if contiguous, to find matches spanning batches.
+        long firstPage = pages[batch.start];
+        if (firstPage != lastPage + 1) {
+          tail = new byte[0];
+          tailKnown = new BitSet();
+        }
+        int size = tail.length;
+        for (MemorySegment segment : segments) {
+          size += segment.length;
+        }
+        byte[] buffer = Arrays.copyOf(tail, size);
+        BitSet known = tailKnown;
+        int pos = tail.length;
+        for (MemorySegment segment : segments) {
+          System.arraycopy(segment.data, segment.offset, buffer, pos, segment.length);
+          for (int i = segment.known.nextSetBit(segment.offset);
+              i >= 0 && i < segment.offset + segment.length; i = segment.known.nextSetBit(i + 1)) {
+            int end = Math.min(segment.known.nextClearBit(i), segment.offset + segment.length);
+            known.set(pos + i - segment.offset, pos + end - segment.offset);
+            i = end;
+          }
+          pos += segment.length;
+        }
+
+        long baseOffset = PagedMemoryDataModel.getOffsetForPage(firstPage) - tail.length;
+        search(buffer, known, data.getAddress() + baseOffset);
+
+        int keep = Math.min(pattern.length - 1, buffer.length);
+        tail = Arrays.copyOfRange(buffer, buffer.length - keep, buffer.length);
+        tailKnown = known.get(buffer.length - keep, buffer.length);
+        lastPage = pages[batch.end - 1];
+        synchronized (this) {
+          searchedPages += batch.end - batch.start;
+          if (resultCount >= MAX_RESULTS) {
+            cancelled.set(true);
+          }
+        }
+        onProgress.accept(this);
+        batch = next;
+      }
+      // Stop fetching the pages of the batches that will not be searched.
+      for (Batch pending : new Batch[] { batch, next }) {
+        if (pending != null) {
+          pending.pages.cancel(true);
+        }
+      }
+
+      synchronized (this) {
+        done = !failed;
+        LOG.log(FINE, "Searched {0} pages of memory in {1}ms, {2} matches", new Object[] {
+            searchedPages, NANOSECONDS.toMillis(System.nanoTime() - start), resultCount
+        });
+      }
+      onProgress.accept(this);
+    }
+
+    /**
+     * @return the sorted pages of the data model covering the memory observed by the atoms up to
+     * the searched atom, or {@code null} if cancelled.
+     */
+    private long[] getObservedPages() {
+      long address = data.getAddress(), endAddress = data.getEndAddress();
+      long maxPage = PagedMemoryDataModel.getPageForOffset(endAddress - address);
+      long toAtom = data.atomPath.getIndex();
+      PageRanges ranges = new PageRanges();
+      ObservationIndex.RangeVisitor add = (first, last) -> {
+        // Page offsets of the first and last byte of the range.
+        ranges.add(
+            PagedMemoryDataModel.getPageForOffset(UnsignedLongs.max(first, address) - address),
+            Math.min(maxPage, PagedMemoryDataModel.getPageForOffset(last - address)));
+        return !cancelled.get();
+      };
+
+      if (index != null) {
+        if (!index.visitAccessedRanges(address, endAddress, toAtom, add)) {
+          return null;
+        }
+      } else {
+        // The index is still being built, collect the observations from the atoms instead.
+        for (int i = 0; i <= toAtom && i < atomCount; i++) {
+          if ((i & 0xfff) == 0 && cancelled.get()) {
+            return null;
+          }
+          Atom atom = atoms.get(i);
+          if (atom.getObservationCount() == 0) {
+            continue;
+          }
+          Observations obs = atom.getObservations();
+          for (Observation[] list : new Observation[][] { obs.getReads(), obs.getWrites() }) {
+            for (Observation o : list) {
+              MemoryRange range = o.getRange();
+              if (range.getSize() == 0) {
+                continue;
+              }
+              long last = ObservationIndex.lastAddress(range.getBase(), range.getSize());
+              if (UnsignedLongs.compare(range.getBase(), endAddress) <= 0 &&
+                  UnsignedLongs.compare(last, address) >= 0) {
+                add.visit(range.getBase(), last);
+              }
+            }
+          }
+        }
+      }
+
+      return ranges.getPages();
+    }
+
+    /**
+     * Searches the buffer, starting at the given address, in parallel parts.
+     */
+    private void search(byte[] buffer, BitSet known, long address) {
+      int parts = Math.max(1, Math.min(SPLITS_PER_BATCH, buffer.length / 4096));
+      int partSize = (buffer.length + parts - 1) / parts;
+      long[][] found = IntStream.range(0, parts).parallel()
+          .mapToObj(part -> search(buffer, known, part * partSize,
+              Math.min(buffer.length, (part + 1) * partSize)))
+          .toArray(long[][]::new);
+      synchronized (this) {
+        for (long[] matches : found) {
+          for (long match : matches) {
+            if (resultCount == MAX_RESULTS) {
+              return;
+            }
+            if (resultCount == results.length) {
+              results = Arrays.copyOf(results, 2 * resultCount);
+            }
+            results[resultCount++] = address + match;
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the positions of the matches starting in the given part of the buffer.
+     */
+    private long[] search(byte[] buffer, BitSet known, int from, int to) {
+      long[] result = new long[16];
+      int count = 0;
+      int last = pattern.length - 1;
+      for (int pos = from; pos < to && pos + last < buffer.length && !cancelled.get(); ) {
+        int i = last;
+        while (i >= 0 && buffer[pos + i] == pattern[i]) {
+          i--;
+        }
+        if (i < 0 && known.nextClearBit(pos) > pos + last) {
+          if (count == result.length) {
+            result = Arrays.copyOf(result, 2 * count);
+          }
+          result[count++] = pos;
+        }
+        pos += skip[buffer[pos + last] & 0xFF];
+      }
+      return Arrays.copyOf(result, count);
+    }
+
+    public synchronized long[] getResults(int from) {
+      return Arrays.copyOfRange(results, Math.min(from, resultCount), resultCount);
+    }
+
+    public synchronized String getStatus() {
+      String result = resultCount + ((resultCount >= MAX_RESULTS) ? "+" : "") + " match" +
+          (resultCount == 1 ? "" : "es");
+      if (failed) {
+        return result + " (failed)";
+      } else if (totalPages < 0) {
+        return result + " (collecting observations)";
+      } else if (!done && totalPages > 0) {
+        return result + " (" + (100 * searchedPages / totalPages) + "%)";
+      }
+      return result;
+    }
+
+    /**
+     * Inclusive ranges of pages, possibly overlapping.
+     */
+    private static class PageRanges {
+      private long[] firsts = new long[64], lasts = new long[64];
+      private int count = 0;
+
+      public void add(long first, long last) {
+        if (count == firsts.length) {
+          firsts = Arrays.copyOf(firsts, 2 * count);
+          lasts = Arrays.copyOf(lasts, 2 * count);
+        }
+        firsts[count] = first;
+        lasts[count] = last;
+        count++;
+      }
+
+      /**
+       * @return the sorted distinct pages of the ranges.
+       */
+      public long[] getPages() {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+          order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(firsts[a], firsts[b]));
+        long[] result = new long[64];
+        int pages = 0;
+        long next = 0;
+        for (int i : order) {
+          for (long page = Math.max(next, firsts[i]); page <= lasts[i]; page++) {
+            if (pages == result.length) {
+              result = Arrays.copyOf(result, 2 * pages);
+            }
+            result[pages++] = page;
+          }
+          next = Math.max(next, lasts[i] + 1);
+        }
+        return Arrays.copyOf(result, pages);
+      }
+    }
+
+    /**
+     * A batch of pages, which are contiguous.
+     */
+    private class Batch {
+      public final int start, end;
+      public final ListenableFuture<List<MemorySegment>> pages;
+
+      public Batch(long[] all, int start) {
+        int count = 1;
+        while (count < PAGES_PER_BATCH && start + count < all.length &&
+            all[start + count] == all[start] + count) {
+          count++;
+        }
+        this.start = start;
+        this.end = start + count;
+        this.pages = Futures.allAsList(data.getPages(all[start], all[start] + count - 1, false));
+      }
+    }
+  }
+
+  /**
+   * The types of values that can be searched for, encoded little endian.
+   */
+  private static enum SearchType {
+    Bytes() {
+      @Override
+      public byte[] encode(String text) {
+        String hex = text.replaceAll("\\s", "");
+        if (hex.isEmpty() || (hex.length() & 1) != 0) {
+          throw new NumberFormatException("Expected an even number of hex digits");
+        }
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+          result[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+      }
+    }, Text() {
+      @Override
+      public byte[] encode(String text) {
+        if (text.isEmpty()) {
+          throw new NumberFormatException("Expected some text");
+        }
+        return text.getBytes(StandardCharsets.UTF_8);
+      }
+    }, Int() {
+      @Override
+      public byte[] encode(String text) {
+        long value = parseInteger(text);
+        if (value < Integer.MIN_VALUE || value > 0xFFFFFFFFL) {
+          throw new NumberFormatException("Value out of range");
+        }
+        return buffer(4).putInt((int)value).array();
+      }
+    }, Long() {
+      @Override
+      public byte[] encode(String text) {
+        return buffer(8).putLong(parseInteger(text)).array();
+      }
+    }, Float() {
+      @Override
+      public byte[] encode(String text) {
+        return buffer(4).putFloat(java.lang.Float.parseFloat(text.trim())).array();
+      }
+    }, Double() {
+      @Override
+      public byte[] encode(String text) {
+        return buffer(8).putDouble(java.lang.Double.parseDouble(text.trim())).array();
+      }
+    };
+
+    /**
+     * @return the bytes to search for the given value.
+     * @throws NumberFormatException if the value is not valid for this type.
+     */
+    public abstract byte[] encode(String text);
+
+    protected static ByteBuffer buffer(int size) {
+      return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    protected static long parseInteger(String text) {
+      text = text.trim();
+      return text.startsWith("-") ? java.lang.Long.decode(text) : UnsignedLongs.decode(text);
     }
   }
 
   private static interface MemoryModel {
     long getLineCount();
     int getLineLength();
-    Iterator<Segment> getLines(long start, long end, Loadable loadable);
+    Iterator<String> getLines(long start, long end, Loadable loadable);
     IntRange getSelectableRegion(int column);
+    /**
+     * @return the bytes of a row, from inclusive to exclusive, of the value shown at the given
+     * column, or {@code null} if no value is shown there.
+     */
+    IntRange getBytesAt(int column);
     Selection[] getReads(long startRow, long endRow, Loadable loadable);
     Selection[] getWrites(long startRow, long endRow, Loadable loadable);
+    IntRange[] getDataRanges();
   }
 
   private static abstract class FixedMemoryModel implements MemoryModel {
     protected static final char UNKNOWN_CHAR = '?';
     protected static final int BYTES_PER_ROW = 16;
     private final static Selection[] NO_SELECTIONS = new Selection[0];
+    // Lines are formatted, and cached, in blocks of rows. A block never spans memory pages.
+    private static final int ROWS_PER_BLOCK = 256;
+    private static final int MAX_BLOCKS = 256;
 
     protected final MemoryDataModel data;
     protected final long rows;
+    private final Cache<Long, String[]> blocks =
+        CacheBuilder.newBuilder().maximumSize(MAX_BLOCKS).build();
 
     public FixedMemoryModel(MemoryDataModel data) {
       this.data = data;
@@ -622,13 +1923,14 @@ public class MemoryView extends Composite
       return rows;
     }
 
-    private MemorySegment getMemorySegment(long startRow, long endRow, Loadable loadable) {
+    private void checkRows(long startRow, long endRow) {
       if (startRow < 0 || endRow < startRow || endRow > getLineCount()) {
         throw new IndexOutOfBoundsException(
             "[" + startRow + ", " + endRow + ") outside of [0, " + getLineCount() + ")");
       }
-      ListenableFuture<MemorySegment> future =
-          data.get(startRow * BYTES_PER_ROW, (int)(endRow - startRow) * BYTES_PER_ROW);
+    }
+
+    private static <T> T getIfDone(ListenableFuture<T> future, Loadable loadable) {
       if (future.isDone()) {
         loadable.stopLoading();
         return Futures.getUnchecked(future);
@@ -639,21 +1941,39 @@ public class MemoryView extends Composite
       }
     }
 
+    private MemorySegment getMemorySegment(long startRow, long endRow, Loadable loadable) {
+      checkRows(startRow, endRow);
+      return getIfDone(
+          data.get(startRow * BYTES_PER_ROW, (int)(endRow - startRow) * BYTES_PER_ROW), loadable);
+    }
+
     @Override
-    public Iterator<Segment> getLines(long startRow, long endRow, Loadable loadable) {
-      MemorySegment segment = getMemorySegment(startRow, endRow, loadable);
-      if (segment != null) {
-        return getLines(startRow, endRow, segment);
-      } else {
+    public Iterator<String> getLines(long startRow, long endRow, Loadable loadable) {
+      checkRows(startRow, endRow);
+      if (startRow == endRow) {
         return Collections.emptyIterator();
       }
-    }
 
-    protected Iterator<Segment> getLines(long startRow, long endRow, MemorySegment memory) {
-      return new Iterator<Segment>() {
+      long firstBlock = startRow / ROWS_PER_BLOCK, lastBlock = (endRow - 1) / ROWS_PER_BLOCK;
+      List<String[]> lines = Lists.newArrayList();
+      for (long block = firstBlock; block <= lastBlock; block++) {
+        String[] result = blocks.getIfPresent(block);
+        if (result == null) {
+          long firstRow = block * ROWS_PER_BLOCK;
+          int count = (int)Math.min(ROWS_PER_BLOCK, rows - firstRow);
+          MemorySegment memory = getIfDone(
+              data.get(firstRow * BYTES_PER_ROW, count * BYTES_PER_ROW), loadable);
+          if (memory == null) {
+            return Collections.emptyIterator();
+          }
+          result = formatLines(memory, firstRow, count);
+          blocks.put(block, result);
+        }
+        lines.add(result);
+      }
+
+      return new Iterator<String>() {
         private long pos = startRow;
-        private int offset = 0;
-        private final Segment segment = new Segment(null, 0, 0);
 
         @Override
         public boolean hasNext() {
@@ -661,14 +1981,14 @@ public class MemoryView extends Composite
         }
 
         @Override
-        public Segment next() {
+        public String next() {
           if (!hasNext()) {
             throw new NoSuchElementException();
           }
-          getLine(segment, memory.subSegment(offset, BYTES_PER_ROW), pos);
+          String result = lines.get((int)(pos / ROWS_PER_BLOCK - firstBlock))
+              [(int)(pos % ROWS_PER_BLOCK)];
           pos++;
-          offset += BYTES_PER_ROW;
-          return segment;
+          return result;
         }
 
         @Override
@@ -678,9 +1998,13 @@ public class MemoryView extends Composite
       };
     }
 
-    protected abstract void getLine(Segment segment, MemorySegment memory, long line);
+    /**
+     * @return the formatted lines of the given rows, formatted from the given memory of the rows.
+     */
+    protected abstract String[] formatLines(MemorySegment memory, long firstRow, int count);
 
-    protected abstract IntRange[] getDataRanges();
+    @Override
+    public abstract IntRange[] getDataRanges();
 
     @Override
     public Selection[] getReads(long startRow, long endRow, Loadable loadable) {
@@ -727,14 +2051,25 @@ public class MemoryView extends Composite
     protected static final int ADDRESS_CHARS = CHARS_PER_ADDRESS + ADDRESS_SEPARATOR;
     protected static final IntRange ADDRESS_RANGE = new IntRange(0, CHARS_PER_ADDRESS);
     protected static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    // The two hex digits of each byte value, at twice the value.
+    protected static final char[] HEX_PAIRS = new char[512];
+    static {
+      for (int i = 0; i < 256; i++) {
+        HEX_PAIRS[2 * i] = HEX_DIGITS[i >> 4];
+        HEX_PAIRS[2 * i + 1] = HEX_DIGITS[i & 0xF];
+      }
+    }
 
     protected final int charsPerRow;
     protected final IntRange memoryRange;
+    protected final int bytesPerValue;
 
-    public CharBufferMemoryModel(MemoryDataModel data, int charsPerRow, IntRange memoryRange) {
+    public CharBufferMemoryModel(
+        MemoryDataModel data, int charsPerRow, IntRange memoryRange, int bytesPerValue) {
       super(data);
       this.charsPerRow = charsPerRow;
       this.memoryRange = memoryRange;
+      this.bytesPerValue = bytesPerValue;
     }
 
     @Override
@@ -748,25 +2083,45 @@ public class MemoryView extends Composite
       }
     }
 
-    @Override
-    protected void getLine(Segment segment, MemorySegment memory, long line) {
-      segment.array = new char[charsPerRow];
-      segment.offset = 0;
-      segment.count = charsPerRow;
-      formatLine(segment.array, memory, line);
+    /**
+     * Writes the two hex digits of the given byte into the buffer at the given position.
+     */
+    protected static void appendHex(char[] buffer, int pos, int b) {
+      buffer[pos] = HEX_PAIRS[2 * (b & 0xFF)];
+      buffer[pos + 1] = HEX_PAIRS[2 * (b & 0xFF) + 1];
     }
 
-    private void formatLine(char[] array, MemorySegment memory, long line) {
-      Arrays.fill(array, ' ');
-      long address = data.getAddress() + line * BYTES_PER_ROW;
-      for (int i = CHARS_PER_ADDRESS - 1; i >= 0; i--, address >>>= 4) {
-        array[i] = HEX_DIGITS[(int)address & 0xF];
+    @Override
+    protected String[] formatLines(MemorySegment memory, long firstRow, int count) {
+      String[] result = new String[count];
+      char[] line = new char[charsPerRow];
+      ByteBuffer bytes = memory.asBuffer();
+      long address = data.getAddress() + firstRow * BYTES_PER_ROW;
+      for (int row = 0, pos = 0; row < count; row++, pos += BYTES_PER_ROW) {
+        Arrays.fill(line, ' ');
+        long rowAddress = address + (long)pos;
+        for (int i = CHARS_PER_ADDRESS - 2; i >= 0; i -= 2, rowAddress >>>= 8) {
+          appendHex(line, i, (int)rowAddress);
+        }
+        line[CHARS_PER_ADDRESS] = ':';
+        int length = Math.max(0, Math.min(BYTES_PER_ROW, memory.length - pos));
+        formatMemory(line, bytes, memory, pos, length, memory.getByteKnown(pos, length));
+        result[row] = new String(line);
       }
-      array[CHARS_PER_ADDRESS] = ':';
-      formatMemory(array, memory);
+      return result;
     }
 
-    protected abstract void formatMemory(char[] buffer, MemorySegment memory);
+    /**
+     * Formats the given bytes of a row into the line.
+     *
+     * @param bytes the little endian bytes of the memory.
+     * @param pos the position of the row's bytes in the memory.
+     * @param length the number of bytes of the row.
+     * @param known whether all the bytes of the row are known, in which case the bytes do not need
+     * to be checked individually.
+     */
+    protected abstract void formatMemory(char[] line, ByteBuffer bytes, MemorySegment memory,
+        int pos, int length, boolean known);
 
     @Override
     public IntRange getSelectableRegion(int column) {
@@ -778,6 +2133,18 @@ public class MemoryView extends Composite
       return null;
     }
 
+    @Override
+    public IntRange getBytesAt(int column) {
+      if (!memoryRange.isWithin(column)) {
+        return null;
+      }
+      // Each value takes the same number of characters, including the separator following it.
+      int values = BYTES_PER_ROW / bytesPerValue;
+      int value = Math.min(values - 1,
+          (column - memoryRange.from) * values / (memoryRange.to - memoryRange.from + 1));
+      return new IntRange(value * bytesPerValue, (value + 1) * bytesPerValue);
+    }
+
     @Override
     public IntRange[] getDataRanges() {
       return new IntRange[] { memoryRange };
@@ -800,7 +2167,7 @@ public class MemoryView extends Composite
         new IntRange(ADDRESS_CHARS + BYTES_CHARS + ASCII_SEPARATOR, CHARS_PER_ROW);
 
     public BytesMemoryModel(MemoryDataModel data) {
-      super(data, CHARS_PER_ROW, BYTES_RANGE);
+      super(data, CHARS_PER_ROW, BYTES_RANGE, 1);
     }
 
     @Override
@@ -813,24 +2180,29 @@ public class MemoryView extends Composite
     }
 
     @Override
-    protected void formatMemory(char[] buffer, MemorySegment memory) {
-      for (int i = 0, j = ADDRESS_CHARS; i < memory.length;
-          i++, j += CHARS_PER_BYTE + BYTE_SEPARATOR) {
-        int b = memory.getByte(i);
-        if (memory.getByteKnown(i)) {
-          buffer[j + 1] = HEX_DIGITS[(b >> 4) & 0xF];
-          buffer[j + 2] = HEX_DIGITS[(b >> 0) & 0xF];
+    protected void formatMemory(char[] buffer, ByteBuffer bytes, MemorySegment memory,
+        int pos, int length, boolean known) {
+      for (int i = 0, j = ADDRESS_CHARS, k = ADDRESS_CHARS + BYTES_CHARS + ASCII_SEPARATOR;
+          i < length; i++, j += CHARS_PER_BYTE + BYTE_SEPARATOR, k++) {
+        int b = bytes.get(pos + i) & 0xFF;
+        if (known || memory.getByteKnown(pos + i)) {
+          appendHex(buffer, j + 1, b);
+          buffer[k] = (b >= 32 && b < 127) ? (char)b : '.';
         } else {
           buffer[j + 1] = UNKNOWN_CHAR;
           buffer[j + 2] = UNKNOWN_CHAR;
+          buffer[k] = '.';
         }
       }
+    }
 
-      for (int i = 0, j = ADDRESS_CHARS + BYTES_CHARS + ASCII_SEPARATOR; i < memory.length;
-          i++, j++) {
-        int b = memory.getByte(i);
-        buffer[j] = memory.getByteKnown(i) && (b >= 32 && b < 127) ? (char)b : '.';
+    @Override
+    public IntRange getBytesAt(int column) {
+      if (ASCII_RANGE.isWithin(column)) {
+        int pos = Math.min(BYTES_PER_ROW - 1, column - ASCII_RANGE.from);
+        return new IntRange(pos, pos + 1);
       }
+      return super.getBytesAt(column);
     }
 
     @Override
@@ -840,8 +2212,6 @@ public class MemoryView extends Composite
   }
 
   private static class IntegersMemoryModel extends CharBufferMemoryModel {
-    // Little endian assumption
-    private static final ByteOrder ENDIAN = ByteOrder.LITTLE_ENDIAN;
     private static final int ITEM_SEPARATOR = 1;
     private final int size;
 
@@ -876,22 +2246,21 @@ public class MemoryView extends Composite
     }
 
     protected IntegersMemoryModel(MemoryDataModel data, int size) {
-      super(data.align(size), charsPerRow(size), itemsRange(size));
+      super(data.align(size), charsPerRow(size), itemsRange(size), size);
       this.size = size;
     }
 
     @Override
-    protected void formatMemory(char[] buffer, MemorySegment memory) {
+    protected void formatMemory(char[] buffer, ByteBuffer bytes, MemorySegment memory,
+        int pos, int length, boolean known) {
       final int charsPerItem = charsPerItem(size);
-      for (int i = 0, j = ADDRESS_CHARS; i + size <= memory.length;
+      for (int i = 0, j = ADDRESS_CHARS; i + size <= length;
           i += size, j += charsPerItem + ITEM_SEPARATOR) {
-        if (memory.getByteKnown(i, size)) {
-          for (int k = 0; k < size; ++k) {
-            int val = memory.getByte(i + k);
-            int chOff = ENDIAN.equals(ByteOrder.LITTLE_ENDIAN) ?
-                charsPerItem(size - 1 - k) : charsPerItem(k);
-            buffer[j + chOff + 1] = HEX_DIGITS[(val >> 4) & 0xF];
-            buffer[j + chOff + 2] = HEX_DIGITS[val & 0xF];
+        if (known || memory.getByteKnown(pos + i, size)) {
+          // Little endian assumption: the most significant, last, byte is shown first.
+          long value = getItem(bytes, pos + i);
+          for (int k = charsPerItem - 2; k >= 0; k -= 2, value >>>= 8) {
+            appendHex(buffer, j + k + 1, (int)value);
           }
         } else {
           for (int k = 0; k < charsPerItem; ++k) {
@@ -900,6 +2269,14 @@ public class MemoryView extends Composite
         }
       }
     }
+
+    private long getItem(ByteBuffer bytes, int pos) {
+      switch (size) {
+        case 2: return bytes.getShort(pos);
+        case 4: return bytes.getInt(pos);
+        default: return bytes.getLong(pos);
+      }
+    }
   }
 
   private static class ShortsMemoryModel extends IntegersMemoryModel {
@@ -932,18 +2309,20 @@ public class MemoryView extends Composite
     private static final IntRange FLOATS_RANGE =
         new IntRange(ADDRESS_CHARS + FLOAT_SEPARATOR, ADDRESS_CHARS + FLOATS_CHARS);
 
+    private final StringBuilder sb = new StringBuilder(50);
+
     public FloatsMemoryModel(MemoryDataModel data) {
-      super(data.align(4), CHARS_PER_ROW, FLOATS_RANGE);
+      super(data.align(4), CHARS_PER_ROW, FLOATS_RANGE, 4);
     }
 
     @Override
-    protected void formatMemory(char[] buffer, MemorySegment memory) {
-      StringBuilder sb = new StringBuilder(50);
-      for (int i = 0, j = ADDRESS_CHARS; i + 3 < memory.length;
+    protected void formatMemory(char[] buffer, ByteBuffer bytes, MemorySegment memory,
+        int pos, int length, boolean known) {
+      for (int i = 0, j = ADDRESS_CHARS; i + 3 < length;
           i += 4, j += CHARS_PER_FLOAT + FLOAT_SEPARATOR) {
         sb.setLength(0);
-        if (memory.getIntKnown(i)) {
-          sb.append(Float.intBitsToFloat(memory.getInt(i)));
+        if (known || memory.getIntKnown(pos + i)) {
+          sb.append(bytes.getFloat(pos + i));
         } else {
           appendUnknown(sb, CHARS_PER_FLOAT);
         }
@@ -965,18 +2344,20 @@ public class MemoryView extends Composite
     private static final IntRange DOUBLES_RANGE =
         new IntRange(ADDRESS_CHARS + DOUBLE_SEPARATOR, ADDRESS_CHARS + DOUBLES_CHARS);
 
+    private final StringBuilder sb = new StringBuilder(50);
+
     public DoublesMemoryModel(MemoryDataModel data) {
-      super(data.align(8), CHARS_PER_ROW, DOUBLES_RANGE);
+      super(data.align(8), CHARS_PER_ROW, DOUBLES_RANGE, 8);
     }
 
     @Override
-    protected void formatMemory(char[] buffer, MemorySegment memory) {
-      StringBuilder sb = new StringBuilder(50);
-      for (int i = 0, j = ADDRESS_CHARS; i + 7 < memory.length;
+    protected void formatMemory(char[] buffer, ByteBuffer bytes, MemorySegment memory,
+        int pos, int length, boolean known) {
+      for (int i = 0, j = ADDRESS_CHARS; i + 7 < length;
           i += 8, j += CHARS_PER_DOUBLE + DOUBLE_SEPARATOR) {
         sb.setLength(0);
-        if (memory.getLongKnown(i)) {
-          sb.append(Double.longBitsToDouble(memory.getLong(i)));
+        if (known || memory.getLongKnown(pos + i)) {
+          sb.append(bytes.getDouble(pos + i));
         } else {
           appendUnknown(sb, CHARS_PER_DOUBLE);
         }
@@ -1047,9 +2428,13 @@ public class MemoryView extends Composite
       writes = info.getWritesList();
     }
 
+    /**
+     * @return a segment spanning the given segments, which refers to their data, rather than
+     * copying it.
+     */
     public static MemorySegment combine(List<MemorySegment> segments, int length) {
-      byte[] data = new byte[length];
-      BitSet known = new BitSet(length);
+      List<MemorySegment> parts = Lists.newArrayList();
+      int[] starts = new int[segments.size()];
       int done = 0;
 
       List<Service.MemoryRange> reads = Lists.newArrayList();
@@ -1058,10 +2443,8 @@ public class MemoryView extends Composite
       for (Iterator<MemorySegment> it = segments.iterator(); it.hasNext() && done < length; ) {
         MemorySegment segment = it.next();
         int count = Math.min(length - done, segment.length);
-        System.arraycopy(segment.data, segment.offset, data, done, count);
-        for (int i = 0; i < count; ++i) {
-          known.set(done + i, segment.known.get(segment.offset + i));
-        }
+        starts[parts.size()] = done;
+        parts.add(segment.subSegment(0, count));
 
         for (Service.MemoryRange range : segment.reads) {
           reads.add((done == 0 && segment.offset == 0) ?
@@ -1074,7 +2457,8 @@ public class MemoryView extends Composite
 
         done += count;
       }
-      return new MemorySegment(data, known, 0, done, reads, writes);
+      return new CombinedSegment(parts.toArray(new MemorySegment[parts.size()]),
+          Arrays.copyOf(starts, parts.size()), done, reads, writes);
     }
 
     public MemorySegment subSegment(int start, int count) {
@@ -1082,6 +2466,21 @@ public class MemoryView extends Composite
           data, known, offset + start, Math.min(count, length - start), reads, writes);
     }
 
+    /**
+     * @return a little endian buffer of the bytes of this segment, sharing its data.
+     */
+    public ByteBuffer asBuffer() {
+      return ByteBuffer.wrap(data, offset, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return this segment with the given reads and writes.
+     */
+    public MemorySegment withObservations(
+        List<Service.MemoryRange> newReads, List<Service.MemoryRange> newWrites) {
+      return new MemorySegment(data, known, offset, length, newReads, newWrites);
+    }
+
     /*TODO
     public String asString(int start, int count) {
       return new String(
@@ -1093,15 +2492,7 @@ public class MemoryView extends Composite
       if (off < 0 || size < 0 || offset + off + size > data.length) {
         return false;
       }
-      if (known == null) {
-        return true;
-      }
-      for (int o = off; o < off + size; o++) {
-        if (!known.get(offset + o)) {
-          return false;
-        }
-      }
-      return true;
+      return known == null || known.nextClearBit(offset + off) >= offset + off + size;
     }
 
     public boolean getByteKnown(int off) {
@@ -1143,15 +2534,96 @@ public class MemoryView extends Composite
     }
   }
 
-  private static class Segment {
-    public char[] array;
-    public int offset;
-    public int count;
+  /**
+   * A {@link MemorySegment} spanning multiple pages, which reads the bytes from the segments of the
+   * pages.
+   */
+  private static class CombinedSegment extends MemorySegment {
+    private final MemorySegment[] parts;
+    // The offset of each part within this segment.
+    private final int[] starts;
 
-    public Segment(char[] array, int offset, int count) {
-      this.array = array;
-      this.offset = offset;
-      this.count = count;
+    public CombinedSegment(MemorySegment[] parts, int[] starts, int length,
+        List<Service.MemoryRange> reads, List<Service.MemoryRange> writes) {
+      super(null, null, 0, length, reads, writes);
+      this.parts = parts;
+      this.starts = starts;
+    }
+
+    private int getPart(int off) {
+      int pos = Arrays.binarySearch(starts, off);
+      return (pos >= 0) ? pos : -pos - 2;
+    }
+
+    @Override
+    public MemorySegment subSegment(int start, int count) {
+      count = Math.min(count, length - start);
+      int part = getPart(start);
+      if (start - starts[part] + count <= parts[part].length) {
+        return parts[part].subSegment(start - starts[part], count);
+      }
+
+      // The segment straddles parts, so it needs to be copied.
+      byte[] data = new byte[count];
+      BitSet known = new BitSet(count);
+      for (int i = 0; i < count; i++) {
+        data[i] = (byte)getByte(start + i);
+        known.set(i, getByteKnown(start + i));
+      }
+      List<Service.MemoryRange> subReads = Lists.newArrayList();
+      for (Service.MemoryRange range : reads) {
+        subReads.add(memory(range.getBase() - start, range.getSize()));
+      }
+      List<Service.MemoryRange> subWrites = Lists.newArrayList();
+      for (Service.MemoryRange range : writes) {
+        subWrites.add(memory(range.getBase() - start, range.getSize()));
+      }
+      return new MemorySegment(data, known, 0, count, subReads, subWrites);
+    }
+
+    @Override
+    public ByteBuffer asBuffer() {
+      ByteBuffer result = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      for (MemorySegment part : parts) {
+        result.put(part.asBuffer());
+      }
+      result.flip();
+      return result;
+    }
+
+    @Override
+    public MemorySegment withObservations(
+        List<Service.MemoryRange> newReads, List<Service.MemoryRange> newWrites) {
+      return new CombinedSegment(parts, starts, length, newReads, newWrites);
+    }
+
+    @Override
+    public boolean getByteKnown(int off, int size) {
+      if (off < 0 || size < 0 || off + size > length) {
+        return false;
+      }
+      for (int done = 0; done < size; ) {
+        int part = getPart(off + done);
+        int inPart = off + done - starts[part];
+        int count = Math.min(size - done, parts[part].length - inPart);
+        if (!parts[part].getByteKnown(inPart, count)) {
+          return false;
+        }
+        done += count;
+      }
+      return true;
+    }
+
+    @Override
+    public int getByte(int off) {
+      int part = getPart(off);
+      return parts[part].getByte(off - starts[part]);
+    }
+
+    @Override
+    public int getInt(int off) {
+      return getByte(off) | (getByte(off + 1) << 8) | (getByte(off + 2) << 16) |
+          (getByte(off + 3) << 24);
     }
   }
 }
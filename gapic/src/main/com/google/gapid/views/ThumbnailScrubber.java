@@ -24,6 +24,8 @@ import static com.google.gapid.util.Ranges.first;
 import static com.google.gapid.widgets.Widgets.redrawIfNotDisposed;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.Server.GapisInitException;
 import com.google.gapid.models.ApiContext;
 import com.google.gapid.models.ApiContext.FilteringContext;
@@ -44,6 +46,7 @@ import com.google.gapid.widgets.Widgets;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.layout.FillLayout;
@@ -53,7 +56,9 @@ import org.eclipse.swt.widgets.Control;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 public class ThumbnailScrubber extends Composite
     implements Capture.Listener, AtomStream.Listener, ApiContext.Listener {
@@ -115,6 +120,11 @@ public class ThumbnailScrubber extends Composite
     }
   }
 
+  @Override
+  public void onAtomsLoading(int loaded, int total) {
+    updateScrubber();
+  }
+
   @Override
   public void onAtomsLoaded() {
     if (!models.atoms.isLoaded()) {
@@ -139,10 +149,14 @@ public class ThumbnailScrubber extends Composite
   }
 
   private void updateScrubber() {
-    if (models.atoms.isLoaded() && models.contexts.isLoaded()) {
-      List<Data> datas = prepareData(models.atoms.getData(), models.contexts.getSelectedContext());
+    AtomList atoms = models.atoms.getLoadedData();
+    if (atoms != null && models.contexts.isLoaded()) {
+      List<Data> datas = prepareData(
+          atoms, models.atoms.getLoadedAtomCount(), models.contexts.getSelectedContext());
       if (datas.isEmpty()) {
-        loading.showMessage(Info, Messages.NO_FRAMES_IN_CONTEXT);
+        if (models.atoms.isLoaded()) {
+          loading.showMessage(Info, Messages.NO_FRAMES_IN_CONTEXT);
+        }
       } else {
         loading.stopLoading();
         carousel.setData(datas);
@@ -151,12 +165,13 @@ public class ThumbnailScrubber extends Composite
     }
   }
 
-  private static List<Data> prepareData(AtomList atoms, FilteringContext context) {
+  private static List<Data> prepareData(AtomList atoms, int count, FilteringContext context) {
     List<Data> generatedList = new ArrayList<>();
     int frameCount = 0;
     long frameStart = -1, drawCall = -1;
     for (CommandRange contextRange : context.getRanges(atoms)) {
-      for (long index = first(contextRange); index < end(contextRange); index++) {
+      long end = Math.min(end(contextRange), count);
+      for (long index = first(contextRange); index < end; index++) {
         if (frameStart < 0) {
           frameStart = index;
         }
@@ -180,6 +195,7 @@ public class ThumbnailScrubber extends Composite
     public final int frame;
 
     public LoadableImage image;
+    public ListenableFuture<ImageData> request;
 
     public Data(CommandRange range, long previewAtomIndex, int frame) {
       this.range = range;
@@ -211,9 +227,24 @@ public class ThumbnailScrubber extends Composite
       gc.drawString(label, x + 6, y + 6);
     }
 
+    public void load(Control parent, Thumbnails thumbs, LoadingIndicator loading,
+        LoadingIndicator.Repaintable repainter) {
+      request = thumbs.getThumbnail(previewAtomIndex, THUMB_SIZE);
+      image = LoadableImage.forImageData(parent, request, loading, repainter);
+    }
+
+    public boolean isLoading() {
+      return image != null && !image.hasFinished();
+    }
+
     public void dispose() {
+      if (request != null) {
+        request.cancel(true);
+        request = null;
+      }
       if (image != null) {
         image.dispose();
+        image = null;
       }
     }
   }
@@ -222,6 +253,8 @@ public class ThumbnailScrubber extends Composite
       implements InfiniteScrolledComposite.Scrollable, Thumbnails.Listener {
     private static final int MARGIN = 4;
     private static final int MIN_SIZE = 80;
+    // Loading thumbnails further than this many frames out of view are cancelled.
+    private static final int KEEP_LOADING_FRAMES = 4;
 
     private final Control parent;
     private final Thumbnails thumbs;
@@ -229,6 +262,7 @@ public class ThumbnailScrubber extends Composite
     private final LoadingIndicator.Repaintable repainter;
     private final Runnable updateSize;
     private List<Data> datas = Collections.emptyList();
+    private final Set<Data> loadingDatas = Sets.newIdentityHashSet();
     private Point imageSize;
     private int selectedIndex = -1;
 
@@ -255,14 +289,35 @@ public class ThumbnailScrubber extends Composite
     }
 
     public void setData(List<Data> newDatas) {
+      // Keep the leading frames that are unchanged, e.g. while the atoms are being streamed in.
+      int same = 0;
+      for (; same < datas.size() && same < newDatas.size(); same++) {
+        Data oldData = datas.get(same), newData = newDatas.get(same);
+        if (!oldData.range.equals(newData.range)) {
+          break;
+        }
+        newData.image = oldData.image;
+        newData.request = oldData.request;
+        oldData.image = null;
+        oldData.request = null;
+        if (loadingDatas.remove(oldData)) {
+          loadingDatas.add(newData);
+        }
+      }
+      Point size = (same > 0) ? imageSize : null;
+      int selected = (selectedIndex < same) ? selectedIndex : -1;
+
       dispose();
       datas = Lists.newArrayList(newDatas);
+      imageSize = size;
+      selectedIndex = selected;
     }
 
     public void dispose() {
       for (Data data : datas) {
         data.dispose();
       }
+      loadingDatas.clear();
       datas = Collections.emptyList();
       imageSize = null;
       selectedIndex = -1;
@@ -271,11 +326,9 @@ public class ThumbnailScrubber extends Composite
     @Override
     public void onThumnailsChanged() {
       for (Data data : datas) {
-        if (data.image != null) {
-          data.image.dispose();
-          data.image = null;
-        }
+        data.dispose();
       }
+      loadingDatas.clear();
       repainter.repaint();
     }
 
@@ -305,11 +358,17 @@ public class ThumbnailScrubber extends Composite
       int last = (int)((xOffset.longValueExact() + clip.x + clip.width + size.x - 1) / size.x);
       int x = (int)(first * ((long)size.x + 2 * MARGIN) - xOffset.longValueExact());
 
+      if (first < datas.size()) {
+        thumbs.setViewport(datas.get(first).previewAtomIndex,
+            datas.get(Math.min(last, datas.size()) - 1).previewAtomIndex);
+      }
+      cancelOutOfView(first, last);
+
       for (int i = first; i < last && i < datas.size(); i++, x += size.x + 2 * MARGIN) {
         Data data = datas.get(i);
         if (data.image == null && thumbs.isReady()) {
-          data.image = LoadableImage.forImageData(parent,
-              thumbs.getThumbnail(data.previewAtomIndex, THUMB_SIZE), loading, repainter);
+          data.load(parent, thumbs, loading, repainter);
+          loadingDatas.add(data);
         }
         Image toDraw;
         if (data.image != null) {
@@ -333,5 +392,22 @@ public class ThumbnailScrubber extends Composite
         data.paint(gc, toDraw, x + MARGIN, MARGIN / 2, size.x, size.y, i == selectedIndex);
       }
     }
+
+    /**
+     * Cancels the thumbnails that are still loading, but have been scrolled out of view, so they
+     * do not hold up the visible ones.
+     */
+    private void cancelOutOfView(int first, int last) {
+      for (Iterator<Data> it = loadingDatas.iterator(); it.hasNext(); ) {
+        Data data = it.next();
+        if (!data.isLoading()) {
+          it.remove();
+        } else if (data.frame - 1 < first - KEEP_LOADING_FRAMES ||
+            data.frame - 1 >= last + KEEP_LOADING_FRAMES) { // Frame numbers are 1-based.
+          data.dispose();
+          it.remove();
+        }
+      }
+    }
   }
 }
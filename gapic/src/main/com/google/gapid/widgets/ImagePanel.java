@@ -26,6 +26,7 @@ import static com.google.gapid.widgets.Widgets.createSeparator;
 import static com.google.gapid.widgets.Widgets.createToggleToolItem;
 import static com.google.gapid.widgets.Widgets.createToolItem;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.gapid.glviewer.Constants;
 import com.google.gapid.glviewer.ShaderSource;
 import com.google.gapid.glviewer.gl.Buffer;
@@ -84,8 +85,12 @@ public class ImagePanel extends Composite {
   protected static final Logger LOG = Logger.getLogger(ImagePanel.class.getName());
   protected static final int ZOOM_AMOUNT = 5;
   private static final int CHANNEL_RED = 0, CHANNEL_GREEN = 1, CHANNEL_BLUE = 2, CHANNEL_ALPHA = 3;
+  // Levels larger than this are preceded by a coarser level shown as a placeholder.
+  private static final long PROGRESSIVE_PIXELS = 1024 * 1024;
+  private static final long MAX_PLACEHOLDER_PIXELS = 512 * 512;
 
   private final FutureController imageRequestController = new SingleInFlight();
+  private final FutureController placeholderRequestController = new SingleInFlight();
   protected final LoadablePanel<ImageComponent> loading;
   private final StatusBar status;
   protected final ImageComponent imageComponent;
@@ -93,6 +98,7 @@ public class ImagePanel extends Composite {
   private ToolItem backgroundItem, saveItem;
   private MultiLevelImage image = MultiLevelImage.EMPTY;
   private Image level = Image.EMPTY;
+  private int loadingLevel = -1;
 
   public ImagePanel(Composite parent, Widgets widgets) {
     super(parent, SWT.NONE);
@@ -249,6 +255,8 @@ public class ImagePanel extends Composite {
   public void clearImage() {
     this.image = MultiLevelImage.EMPTY;
     this.level = Image.EMPTY;
+    this.loadingLevel = -1;
+    cancelPlaceholder();
     if (saveItem != null) {
       saveItem.setEnabled(false);
     }
@@ -273,7 +281,9 @@ public class ImagePanel extends Composite {
     }
 
     index = Math.min(image.getLevelCount() - 1, index);
+    loadingLevel = index;
     loading.startLoading();
+    loadPlaceholder(index);
     Rpc.listen(image.getLevel(index), imageRequestController,
         new UiErrorCallback<Image, Image, String>(this, LOG) {
       @Override
@@ -299,13 +309,85 @@ public class ImagePanel extends Composite {
     });
   }
 
+  /**
+   * Starts loading a coarser level of the image to stretch over the given level while it loads, if
+   * the given level is large. Levels of large images take a while to fetch and convert, whereas
+   * coarser levels are cheap and give an immediate impression of the image.
+   */
+  private void loadPlaceholder(int index) {
+    int width = image.getLevelWidth(index), height = image.getLevelHeight(index);
+    if ((long)width * height <= PROGRESSIVE_PIXELS) {
+      cancelPlaceholder();
+      return;
+    }
+
+    int placeholder = index + 1;
+    for (; placeholder < image.getLevelCount(); placeholder++) {
+      long pixels = (long)image.getLevelWidth(placeholder) * image.getLevelHeight(placeholder);
+      if (pixels > 0 && pixels <= MAX_PLACEHOLDER_PIXELS) {
+        break;
+      }
+    }
+    if (placeholder >= image.getLevelCount()) {
+      cancelPlaceholder();
+      return;
+    }
+
+    MultiLevelImage requested = image;
+    Rpc.listen(image.getLevel(placeholder), placeholderRequestController,
+        new UiErrorCallback<Image, Image, Void>(this, LOG) {
+      @Override
+      protected ResultOrError<Image, Void> onRpcThread(Rpc.Result<Image> result)
+          throws RpcException, ExecutionException {
+        try {
+          return success(result.get());
+        } catch (DataUnavailableException e) {
+          return error(null);
+        }
+      }
+
+      @Override
+      protected void onUiThreadSuccess(Image coarse) {
+        // Only show the placeholder if the requested level is still loading.
+        if (image == requested && loadingLevel == index) {
+          showPlaceholder(new Placeholder(coarse, width, height));
+        }
+      }
+
+      @Override
+      protected void onUiThreadError(Void error) {
+        // Ignored, the error of the requested level, if any, is shown instead.
+      }
+    });
+  }
+
+  private void cancelPlaceholder() {
+    // Starting an already cancelled future cancels the outstanding request, if any.
+    placeholderRequestController.onStart(Futures.immediateCancelledFuture());
+  }
+
+  private void showPlaceholder(Image placeholder) {
+    if (level == Image.EMPTY) {
+      // Ignore any zoom actions that might have happened before the first real image was shown.
+      imageComponent.zoomToFit();
+    }
+    level = placeholder;
+    status.setLevelSize(placeholder.getWidth(), placeholder.getHeight(), true);
+    loading.stopLoading();
+    if (saveItem != null) {
+      saveItem.setEnabled(false);
+    }
+    imageComponent.setImageData(placeholder);
+  }
+
   protected void updateLevel(Image newLevel) {
+    loadingLevel = -1;
     if (level == Image.EMPTY) {
       // Ignore any zoom actions that might have happened before the first real image was shown.
       imageComponent.zoomToFit();
     }
     level = (newLevel == null) ? Image.EMPTY : newLevel;
-    status.setLevelSize(level.getWidth(), level.getHeight());
+    status.setLevelSize(level.getWidth(), level.getHeight(), false);
     loading.stopLoading();
     if (saveItem != null) {
       saveItem.setEnabled(newLevel != null);
@@ -746,6 +828,59 @@ public class ImagePanel extends Composite {
     }
   }
 
+  /**
+   * A coarser level of an image stretched to the size of a finer level, shown while the finer
+   * level is loading.
+   */
+  private static class Placeholder implements Image, Image.ImageBuffer {
+    private final Image coarse;
+    private final int width, height;
+
+    public Placeholder(Image coarse, int width, int height) {
+      this.coarse = coarse;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public ImageBuffer getData() {
+      return this;
+    }
+
+    @Override
+    public void uploadToTexture(Texture texture) {
+      // The texture coordinates are normalized, so the coarse texture is stretched to our size.
+      coarse.getData().uploadToTexture(texture);
+    }
+
+    @Override
+    public ImageData getImageData() {
+      return coarse.getData().getImageData().scaledTo(width, height);
+    }
+
+    @Override
+    public PixelValue getPixel(int x, int y) {
+      return coarse.getData().getPixel(
+          Math.min(coarse.getWidth() - 1, x * coarse.getWidth() / width),
+          Math.min(coarse.getHeight() - 1, y * coarse.getHeight() / height));
+    }
+
+    @Override
+    public PixelInfo getInfo() {
+      return coarse.getData().getInfo();
+    }
+  }
+
   private static class StatusBar extends Composite {
     private final Composite levelComposite;
     private final Scale levelScale;
@@ -793,8 +928,9 @@ public class ImagePanel extends Composite {
       levelComposite.requestLayout();
     }
 
-    public void setLevelSize(int width, int height) {
-      levelValue.setText(levelScale.getSelection() + ": " + width + "x" + height);
+    public void setLevelSize(int width, int height, boolean partial) {
+      levelValue.setText(levelScale.getSelection() + ": " + width + "x" + height +
+          (partial ? " (loading)" : ""));
       levelComposite.requestLayout();
     }
 
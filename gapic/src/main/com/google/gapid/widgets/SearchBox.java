@@ -28,6 +28,9 @@ import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 public class SearchBox extends Composite {
+  // Whether shift was held when enter was pressed, to search backwards.
+  protected boolean previous = false;
+
   public SearchBox(Composite parent) {
     super(parent, SWT.NONE);
     setLayout(new GridLayout(2, false));
@@ -38,9 +41,10 @@ public class SearchBox extends Composite {
     text.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
     regex.setLayoutData(new GridData(SWT.RIGHT, SWT.TOP, false, false));
 
+    text.addListener(SWT.KeyDown, e -> previous = (e.stateMask & SWT.SHIFT) != 0);
     text.addListener(SWT.DefaultSelection, e -> {
-      notifyListeners(Events.Search,
-          Events.newSearchEvent(SearchBox.this, text.getText(), regex.getSelection()));
+      notifyListeners(Events.Search, Events.newSearchEvent(
+          SearchBox.this, text.getText(), regex.getSelection(), previous));
     });
   }
 
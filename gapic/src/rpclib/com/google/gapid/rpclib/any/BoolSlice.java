@@ -87,9 +87,7 @@ final class BoolSlice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             BoolSlice o = (BoolSlice)obj;
             o.mValue = new boolean[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.bool();
-            }
+            d.bool(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
@@ -87,9 +87,7 @@ final class Float32Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Float32Slice o = (Float32Slice)obj;
             o.mValue = new float[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.float32();
-            }
+            d.float32(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
@@ -87,9 +87,7 @@ final class Float64Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Float64Slice o = (Float64Slice)obj;
             o.mValue = new double[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.float64();
-            }
+            d.float64(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
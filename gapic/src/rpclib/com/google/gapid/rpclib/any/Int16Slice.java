@@ -87,9 +87,7 @@ final class Int16Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Int16Slice o = (Int16Slice)obj;
             o.mValue = new short[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.int16();
-            }
+            d.int16(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
@@ -87,9 +87,7 @@ final class Int32Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Int32Slice o = (Int32Slice)obj;
             o.mValue = new int[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.int32();
-            }
+            d.int32(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
@@ -87,9 +87,7 @@ final class Int64Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Int64Slice o = (Int64Slice)obj;
             o.mValue = new long[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.int64();
-            }
+            d.int64(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
@@ -87,9 +87,7 @@ final class Int8Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Int8Slice o = (Int8Slice)obj;
             o.mValue = new byte[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.int8();
-            }
+            d.int8(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
@@ -87,9 +87,7 @@ final class Uint16Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Uint16Slice o = (Uint16Slice)obj;
             o.mValue = new short[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.uint16();
-            }
+            d.uint16(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
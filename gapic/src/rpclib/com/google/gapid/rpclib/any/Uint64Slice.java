@@ -87,9 +87,7 @@ final class Uint64Slice extends Box implements BinaryObject {
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Uint64Slice o = (Uint64Slice)obj;
             o.mValue = new long[d.uint32()];
-            for (int i = 0; i <o.mValue.length; i++) {
-                o.mValue[i] = d.uint64();
-            }
+            d.uint64(o.mValue, o.mValue.length);
         }
         //<<<End:Java.KlassBody:2>>>
     }
@@ -15,6 +15,8 @@
  */
 package com.google.gapid.rpclib.binary;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.collect.Maps;
 import com.google.gapid.rpclib.schema.Dynamic;
 import com.google.gapid.rpclib.schema.Entity;
@@ -22,31 +24,98 @@ import com.google.gapid.rpclib.schema.Entity;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
  * A decoder of various RPC primitive types.
  * The encoding format is documented at the following link:
  * https://github.com/google/gapid/+/master/binary/doc.go
+ *
+ * A decoder either pulls its bytes from an {@link InputStream}, or, if the encoded data is
+ * already in memory, reads directly from a {@link ByteBuffer}. The latter avoids the per byte
+ * stream calls and decodes varints straight out of the buffer.
  */
 public class Decoder {
   private final Map<Integer, Entity> mEntities;
   private final Map<Integer, BinaryObject> mObjects;
-  private final InputStream mInputStream;
+  private final Map<String, BinaryClass> mClasses;
+  // The decoder this decoder was forked from, if any, resolving the entities and objects not
+  // defined by this decoder.
+  private final Decoder mParent;
+  private InputStream mInputStream;
+  private final ByteBuffer mData;
   private final byte[] mBuffer;
+  // The buffer position following the varint last decoded by uintvAt.
+  private int mVarintEnd;
   private final EncodingControl mControl = new EncodingControl();
 
   public Decoder(InputStream in) {
+    this(in, null);
+  }
+
+  /**
+   * Creates a decoder reading from the remaining bytes of the given buffer. The buffer's
+   * position is advanced as data is decoded.
+   */
+  public Decoder(ByteBuffer data) {
+    this(null, data);
+  }
+
+  public Decoder(byte[] data) {
+    this(null, ByteBuffer.wrap(data));
+  }
+
+  private Decoder(InputStream in, ByteBuffer data) {
     mEntities = Maps.newHashMap();
     mObjects = Maps.newHashMap();
+    mClasses = Maps.newHashMap();
+    mParent = null;
     mInputStream = in;
+    mData = data;
     mBuffer = new byte[9];
     mEntities.put(0, null);
     mObjects.put(0, null);
   }
 
+  private Decoder(ByteBuffer data, Decoder parent) {
+    mEntities = Maps.newHashMap();
+    mObjects = Maps.newHashMap();
+    mClasses = parent.mClasses;
+    mParent = parent;
+    mInputStream = null;
+    mData = data;
+    mBuffer = new byte[9];
+    mControl.mode = parent.mControl.mode;
+  }
+
+  /**
+   * Creates a decoder reading from the remaining bytes of the given buffer, which resolves the
+   * entities and objects already decoded by this decoder. This allows to decode a value from
+   * the middle of the data this decoder has decoded. Any entities and objects defined while
+   * decoding with the returned decoder are kept by it, so multiple forks can be used concurrently,
+   * as long as this decoder is no longer used.
+   */
+  public Decoder fork(ByteBuffer data) {
+    return new Decoder(data, this);
+  }
+
+  /**
+   * @return the position of this decoder in its buffer, or -1 if it reads from a stream.
+   */
+  public int position() {
+    return (mData == null) ? -1 : mData.position();
+  }
+
   public void read(byte[] buf, int count) throws IOException {
+    if (mData != null) {
+      if (mData.remaining() < count) {
+        throw new EOFException("Decoder: End of buffer while reading");
+      }
+      mData.get(buf, 0, count);
+      return;
+    }
+
     int off = 0;
     while (off < count) {
       int readCount = mInputStream.read(buf, off, count - off);
@@ -62,11 +131,16 @@ public class Decoder {
   }
 
   public boolean bool() throws IOException {
-    read(1);
-    return mBuffer[0] != 0;
+    return int8() != 0;
   }
 
   public byte int8() throws IOException {
+    if (mData != null) {
+      if (!mData.hasRemaining()) {
+        throw new EOFException("Decoder: End of buffer while reading");
+      }
+      return mData.get();
+    }
     read(1);
     return mBuffer[0];
   }
@@ -77,7 +151,10 @@ public class Decoder {
 
 
   private long intv() throws IOException {
-    long uv = uintv();
+    return zigzag(uintv());
+  }
+
+  private static long zigzag(long uv) {
     long v = uv >>> 1;
     if ((uv & 1) != 0) {
       v = ~v;
@@ -86,6 +163,10 @@ public class Decoder {
   }
 
   private long uintv() throws IOException {
+    if (mData != null) {
+      return bufferUintv();
+    }
+
     read(1);
     int count = 0;
     while (((0x80 >> count) & mBuffer[0]) != 0) count++;
@@ -100,6 +181,36 @@ public class Decoder {
     return v;
   }
 
+  private long bufferUintv() throws IOException {
+    long v = uintvAt(mData.position());
+    mData.position(mVarintEnd);
+    return v;
+  }
+
+  /**
+   * Decodes the varint at the given absolute position of the buffer, without moving the buffer's
+   * position. The position following the varint is stored in {@link #mVarintEnd}.
+   */
+  private long uintvAt(int pos) throws IOException {
+    ByteBuffer data = mData;
+    int limit = data.limit();
+    if (pos >= limit) {
+      throw new EOFException("Decoder: End of buffer while reading");
+    }
+    int tag = data.get(pos) & 0xff;
+    // The number of leading one bits in the tag byte is the number of bytes that follow.
+    int count = Integer.numberOfLeadingZeros(~(tag << 24));
+    if (pos + count >= limit) {
+      throw new EOFException("Decoder: End of buffer while reading");
+    }
+    long v = tag & (0xff >> count);
+    for (int i = 1; i <= count; i++) {
+      v = (v << 8) | (data.get(pos + i) & 0xffL);
+    }
+    mVarintEnd = pos + count + 1;
+    return v;
+  }
+
   public short int16() throws IOException {
     return (short)intv();
   }
@@ -125,7 +236,15 @@ public class Decoder {
   }
 
   public float float32() throws IOException {
-    int bits = (int)uintv();
+    return float32(uintv());
+  }
+
+  public double float64() throws IOException {
+    return float64(uintv());
+  }
+
+  private static float float32(long v) {
+    int bits = (int)v;
     int shuffled = ((bits & 0x000000ff) <<  24) |
                    ((bits & 0x0000ff00) <<   8) |
                    ((bits & 0x00ff0000) >>   8) |
@@ -133,8 +252,7 @@ public class Decoder {
     return Float.intBitsToFloat(shuffled);
   }
 
-  public double float64() throws IOException {
-    long bits = uintv();
+  private static double float64(long bits) {
     long shuffled = ((bits & 0x00000000000000ffL) <<  56) |
                     ((bits & 0x000000000000ff00L) <<  40) |
                     ((bits & 0x0000000000ff0000L) <<  24) |
@@ -146,18 +264,152 @@ public class Decoder {
     return Double.longBitsToDouble(shuffled);
   }
 
-  public String string() throws IOException {
-    int size = uint32();
-    byte[] bytes = new byte[size];
-    for (int i = 0; i < size; i++) {
-      bytes[i] = int8();
+  // The following decode count values of the given type into the start of the array. When reading
+  // from a buffer, the varints are decoded at a running absolute position and the buffer's position
+  // is only updated once the whole slice has been decoded.
+
+  public void bool(boolean[] values, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      values[i] = int8() != 0;
     }
-    try {
-      return new String(bytes, "UTF-8");
+  }
+
+  public void int8(byte[] values, int count) throws IOException {
+    read(values, count);
+  }
+
+  public void uint8(byte[] values, int count) throws IOException {
+    read(values, count);
+  }
+
+  public void int16(short[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = (short)intv();
+      }
+      return;
     }
-    catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e); // Should never happen
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = (short)zigzag(uintvAt(pos));
+      pos = mVarintEnd;
     }
+    mData.position(pos);
+  }
+
+  public void uint16(short[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = (short)uintv();
+      }
+      return;
+    }
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = (short)uintvAt(pos);
+      pos = mVarintEnd;
+    }
+    mData.position(pos);
+  }
+
+  public void int32(int[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = (int)intv();
+      }
+      return;
+    }
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = (int)zigzag(uintvAt(pos));
+      pos = mVarintEnd;
+    }
+    mData.position(pos);
+  }
+
+  public void uint32(int[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = (int)uintv();
+      }
+      return;
+    }
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = (int)uintvAt(pos);
+      pos = mVarintEnd;
+    }
+    mData.position(pos);
+  }
+
+  public void int64(long[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = intv();
+      }
+      return;
+    }
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = zigzag(uintvAt(pos));
+      pos = mVarintEnd;
+    }
+    mData.position(pos);
+  }
+
+  public void uint64(long[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = uintv();
+      }
+      return;
+    }
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = uintvAt(pos);
+      pos = mVarintEnd;
+    }
+    mData.position(pos);
+  }
+
+  public void float32(float[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = float32();
+      }
+      return;
+    }
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = float32(uintvAt(pos));
+      pos = mVarintEnd;
+    }
+    mData.position(pos);
+  }
+
+  public void float64(double[] values, int count) throws IOException {
+    if (mData == null) {
+      for (int i = 0; i < count; i++) {
+        values[i] = float64();
+      }
+      return;
+    }
+    int pos = mData.position();
+    for (int i = 0; i < count; i++) {
+      values[i] = float64(uintvAt(pos));
+      pos = mVarintEnd;
+    }
+    mData.position(pos);
+  }
+
+  public String string() throws IOException {
+    int size = uint32();
+    if (size == 0) {
+      return "";
+    }
+    byte[] bytes = new byte[size];
+    read(bytes, size);
+    return new String(bytes, UTF_8);
   }
 
   public String nonCompactString() throws IOException {
@@ -184,10 +436,25 @@ public class Decoder {
       entity.decode(this);
       return entity;
     }
-    if (!mEntities.containsKey(sid)) {
-      throw new RuntimeException("Unknown entity: " + sid);
+    for (Decoder d = this; d != null; d = d.mParent) {
+      if (d.mEntities.containsKey(sid)) {
+        return d.mEntities.get(sid);
+      }
     }
-    return mEntities.get(sid);
+    throw new RuntimeException("Unknown entity: " + sid);
+  }
+
+  /**
+   * Registers a class to decode objects of its entity with. For this decoder, it takes precedence
+   * over the class registered in the {@link Namespace}.
+   */
+  public void register(BinaryClass klass) {
+    mClasses.put(klass.entity().signature(), klass);
+  }
+
+  private BinaryClass lookup(Entity entity) {
+    BinaryClass c = mClasses.isEmpty() ? null : mClasses.get(entity.signature());
+    return (c != null) ? c : Namespace.lookup(entity);
   }
 
   public void value(BinaryObject obj) throws IOException {
@@ -199,7 +466,7 @@ public class Decoder {
     if (entity == null) {
       return  null;
     }
-    BinaryClass c = Namespace.lookup(entity);
+    BinaryClass c = lookup(entity);
     if (c == null) {
       c = Dynamic.register(entity);
     }
@@ -216,17 +483,63 @@ public class Decoder {
       mObjects.put(sid, obj);
       return obj;
     }
-    if (!mObjects.containsKey(sid)) {
-      throw new RuntimeException("Unknown object: " + sid);
+    for (Decoder d = this; d != null; d = d.mParent) {
+      if (d.mObjects.containsKey(sid)) {
+        return d.mObjects.get(sid);
+      }
     }
-    return mObjects.get(sid);
+    throw new RuntimeException("Unknown object: " + sid);
   }
 
   public InputStream stream() {
+    if (mInputStream == null) {
+      mInputStream = new BufferInputStream(mData);
+    }
     return mInputStream;
   }
 
   public int getMode() {
     return mControl.mode;
   }
+
+  /**
+   * {@link InputStream} reading from the buffer of a buffer backed {@link Decoder}, sharing its
+   * position.
+   */
+  private static class BufferInputStream extends InputStream {
+    private final ByteBuffer data;
+
+    public BufferInputStream(ByteBuffer data) {
+      this.data = data;
+    }
+
+    @Override
+    public int read() {
+      return data.hasRemaining() ? data.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      } else if (!data.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, data.remaining());
+      data.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int)Math.max(0, Math.min(n, data.remaining()));
+      data.position(data.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return data.remaining();
+    }
+  }
 }
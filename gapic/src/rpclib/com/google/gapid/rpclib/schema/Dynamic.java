@@ -29,9 +29,14 @@ public class Dynamic implements BinaryObject {
     private Klass mKlass;
 
     /**
-     * This can actually sometimes be an array of arrays!
+     * The values of the non-primitive fields. This can actually sometimes be an array of arrays!
      */
-    private Object[] mFields;
+    private Object[] mObjects;
+
+    /**
+     * The unboxed values of the numeric and boolean fields, as laid out by the klass' codec.
+     */
+    private long[] mPrimitives;
 
     public Dynamic(Klass klass) {
         mKlass = klass;
@@ -48,7 +53,7 @@ public class Dynamic implements BinaryObject {
     }
 
     public int getFieldCount() {
-        return mFields.length;
+        return mKlass.codec().getFieldCount();
     }
 
     public Field getFieldInfo(int index) {
@@ -59,16 +64,17 @@ public class Dynamic implements BinaryObject {
      * @return may return an Object, or an Object[]
      */
     public Object getFieldValue(int index) {
-        return mFields[index];
+        return mKlass.codec().get(mObjects, mPrimitives, index);
     }
 
     public void setFieldValue(int index, Object value) {
-        mFields[index] = value;
+        mKlass.codec().set(mObjects, mPrimitives, index, value);
     }
 
     public Dynamic copy() {
         Dynamic result = new Dynamic(mKlass);
-        result.mFields = Arrays.copyOf(mFields, mFields.length);
+        result.mObjects = Arrays.copyOf(mObjects, mObjects.length);
+        result.mPrimitives = Arrays.copyOf(mPrimitives, mPrimitives.length);
         return result;
     }
 
@@ -86,12 +92,14 @@ public class Dynamic implements BinaryObject {
             return false;
         }
         Dynamic d = (Dynamic)obj;
-        return type().equals(d.type()) && Arrays.deepEquals(mFields, d.mFields);
+        return type().equals(d.type()) && Arrays.equals(mPrimitives, d.mPrimitives) &&
+            Arrays.deepEquals(mObjects, d.mObjects);
     }
 
     @Override
     public int hashCode() {
-        return mKlass.hashCode() + 31 * Arrays.deepHashCode(mFields);
+        return mKlass.hashCode() +
+            31 * (31 * Arrays.deepHashCode(mObjects) + Arrays.hashCode(mPrimitives));
     }
 
     @Override
@@ -99,11 +107,12 @@ public class Dynamic implements BinaryObject {
         StringBuilder result = new StringBuilder();
         result.append(mKlass.entity().getName()).append('{');
         Field[] fields = mKlass.entity().getFields();
-        for (int i = 0; i < mFields.length; i++) {
+        for (int i = 0; i < fields.length; i++) {
             if (i > 0) {
                 result.append(", ");
             }
-            String fieldsString = mFields[i] instanceof Object[] ? Arrays.toString((Object[])mFields[i]) : String.valueOf(mFields[i]);
+            Object value = getFieldValue(i);
+            String fieldsString = value instanceof Object[] ? Arrays.toString((Object[])value) : String.valueOf(value);
             result.append(fields[i].getName()).append(": ").append(fieldsString);
         }
         result.append('}');
@@ -113,11 +122,18 @@ public class Dynamic implements BinaryObject {
     public static class Klass implements BinaryClass {
 
         private Entity mType;
+        private DynamicCodec mCodec;
 
         Klass(Entity type) {
             mType = type;
         }
 
+        DynamicCodec codec() {
+            if (mCodec == null) {
+                mCodec = DynamicCodec.compile(mType);
+            }
+            return mCodec;
+        }
 
         @Override
         public Entity entity() {
@@ -134,21 +150,16 @@ public class Dynamic implements BinaryObject {
         public void encode(Encoder e, BinaryObject obj) throws IOException {
             Dynamic o = (Dynamic) obj;
             assert (o.mKlass == this);
-            for (int i = 0; i < mType.getFields().length; i++) {
-                Field field = mType.getFields()[i];
-                Object value = o.mFields[i];
-                field.getType().encodeValue(e, value);
-            }
+            codec().encode(e, o.mObjects, o.mPrimitives);
         }
 
         @Override
         public void decode(Decoder d, BinaryObject obj) throws IOException {
             Dynamic o = (Dynamic) obj;
-            o.mFields = new Object[mType.getFields().length];
-            for (int i = 0; i < mType.getFields().length; i++) {
-                Field field = mType.getFields()[i];
-                o.mFields[i] = field.getType().decodeValue(d);
-            }
+            DynamicCodec codec = codec();
+            o.mObjects = codec.newObjects();
+            o.mPrimitives = codec.newPrimitives();
+            codec.decode(d, o.mObjects, o.mPrimitives);
         }
 
         @Override
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.rpclib.schema;
+
+import com.google.gapid.rpclib.binary.Decoder;
+import com.google.gapid.rpclib.binary.Encoder;
+
+import java.io.IOException;
+
+/**
+ * The field layout and codec of a {@link Dynamic} {@link Entity}. It is compiled once per entity
+ * into a list of field specialized encoders and decoders, so that encoding and decoding an object
+ * no longer needs to dispatch on the field types. Numeric and boolean fields are stored unboxed in
+ * the object's primitive array, all other fields in its object array.
+ */
+final class DynamicCodec {
+    private final Field[] mFields;
+    /**
+     * For each field, its index into either the object array or, if negative, its bitwise
+     * complement is the index into the primitive array.
+     */
+    private final int[] mSlots;
+    private final Method[] mMethods;
+    private final int mObjectCount;
+    private final int mPrimitiveCount;
+    private final FieldDecoder[] mDecoders;
+    private final FieldEncoder[] mEncoders;
+
+    private DynamicCodec(Field[] fields) {
+        mFields = fields;
+        mSlots = new int[fields.length];
+        mMethods = new Method[fields.length];
+        mDecoders = new FieldDecoder[fields.length];
+        mEncoders = new FieldEncoder[fields.length];
+
+        int objects = 0, primitives = 0;
+        for (int i = 0; i < fields.length; i++) {
+            Type type = fields[i].getType();
+            if (isUnboxed(type)) {
+                Method method = ((Primitive)type).getMethod();
+                int slot = primitives++;
+                mSlots[i] = ~slot;
+                mMethods[i] = method;
+                mDecoders[i] = primitiveDecoder(method, slot);
+                mEncoders[i] = primitiveEncoder(method, slot);
+            } else {
+                int slot = objects++;
+                mSlots[i] = slot;
+                mDecoders[i] = objectDecoder(type, slot);
+                mEncoders[i] = (e, o, p) -> type.encodeValue(e, o[slot]);
+            }
+        }
+        mObjectCount = objects;
+        mPrimitiveCount = primitives;
+    }
+
+    public static DynamicCodec compile(Entity entity) {
+        return new DynamicCodec(entity.getFields());
+    }
+
+    public int getFieldCount() {
+        return mFields.length;
+    }
+
+    public Object[] newObjects() {
+        return new Object[mObjectCount];
+    }
+
+    public long[] newPrimitives() {
+        return new long[mPrimitiveCount];
+    }
+
+    public void decode(Decoder d, Object[] objects, long[] primitives) throws IOException {
+        for (FieldDecoder decoder : mDecoders) {
+            decoder.decode(d, objects, primitives);
+        }
+    }
+
+    public void encode(Encoder e, Object[] objects, long[] primitives) throws IOException {
+        for (FieldEncoder encoder : mEncoders) {
+            encoder.encode(e, objects, primitives);
+        }
+    }
+
+    /**
+     * @return the value of the given field, boxing it if it is stored unboxed.
+     */
+    public Object get(Object[] objects, long[] primitives, int field) {
+        int slot = mSlots[field];
+        return (slot >= 0) ? objects[slot] : box(mMethods[field], primitives[~slot]);
+    }
+
+    public void set(Object[] objects, long[] primitives, int field, Object value) {
+        int slot = mSlots[field];
+        if (slot >= 0) {
+            objects[slot] = value;
+        } else {
+            primitives[~slot] = unbox(mMethods[field], value);
+        }
+    }
+
+    private static boolean isUnboxed(Type type) {
+        return type instanceof Primitive && !Primitive.isMethod(type, Method.String);
+    }
+
+    private static FieldDecoder objectDecoder(Type type, int slot) {
+        if (Primitive.isMethod(type, Method.String)) {
+            return (d, o, p) -> o[slot] = d.string();
+        }
+        return (d, o, p) -> o[slot] = type.decodeValue(d);
+    }
+
+    private static FieldDecoder primitiveDecoder(Method method, int slot) {
+        switch (method.getValue()) {
+            case Method.BoolValue:
+                return (d, o, p) -> p[slot] = d.bool() ? 1 : 0;
+            case Method.Int8Value:
+                return (d, o, p) -> p[slot] = d.int8();
+            case Method.Uint8Value:
+                return (d, o, p) -> p[slot] = d.uint8();
+            case Method.Int16Value:
+                return (d, o, p) -> p[slot] = d.int16();
+            case Method.Uint16Value:
+                return (d, o, p) -> p[slot] = d.uint16();
+            case Method.Int32Value:
+                return (d, o, p) -> p[slot] = d.int32();
+            case Method.Uint32Value:
+                return (d, o, p) -> p[slot] = d.uint32();
+            case Method.Int64Value:
+                return (d, o, p) -> p[slot] = d.int64();
+            case Method.Uint64Value:
+                return (d, o, p) -> p[slot] = d.uint64();
+            case Method.Float32Value:
+                return (d, o, p) -> p[slot] = Float.floatToRawIntBits(d.float32());
+            case Method.Float64Value:
+                return (d, o, p) -> p[slot] = Double.doubleToRawLongBits(d.float64());
+            default:
+                throw new IllegalArgumentException("Not an unboxed primitive: " + method);
+        }
+    }
+
+    // These mirror the conversions done by Primitive.encodeValue, so the encoding is identical.
+    private static FieldEncoder primitiveEncoder(Method method, int slot) {
+        switch (method.getValue()) {
+            case Method.BoolValue:
+                return (e, o, p) -> e.bool(p[slot] != 0);
+            case Method.Int8Value:
+                return (e, o, p) -> e.int8((byte)p[slot]);
+            case Method.Uint8Value:
+                return (e, o, p) -> e.uint8((short)p[slot]);
+            case Method.Int16Value:
+                return (e, o, p) -> e.int16((short)p[slot]);
+            case Method.Uint16Value:
+                return (e, o, p) -> e.uint16((int)p[slot]);
+            case Method.Int32Value:
+                return (e, o, p) -> e.int32((int)p[slot]);
+            case Method.Uint32Value:
+                return (e, o, p) -> e.uint32(p[slot]);
+            case Method.Int64Value:
+                return (e, o, p) -> e.int64(p[slot]);
+            case Method.Uint64Value:
+                return (e, o, p) -> e.uint64(p[slot]);
+            case Method.Float32Value:
+                return (e, o, p) -> e.float32(Float.intBitsToFloat((int)p[slot]));
+            case Method.Float64Value:
+                return (e, o, p) -> e.float64(Double.longBitsToDouble(p[slot]));
+            default:
+                throw new IllegalArgumentException("Not an unboxed primitive: " + method);
+        }
+    }
+
+    /**
+     * @return the unboxed value boxed into the same type as returned by
+     * {@link Primitive#decodeValue}.
+     */
+    private static Object box(Method method, long value) {
+        switch (method.getValue()) {
+            case Method.BoolValue:
+                return value != 0;
+            case Method.Int8Value:
+            case Method.Uint8Value:
+                return (byte)value;
+            case Method.Int16Value:
+            case Method.Uint16Value:
+                return (short)value;
+            case Method.Int32Value:
+            case Method.Uint32Value:
+                return (int)value;
+            case Method.Int64Value:
+            case Method.Uint64Value:
+                return value;
+            case Method.Float32Value:
+                return Float.intBitsToFloat((int)value);
+            case Method.Float64Value:
+                return Double.longBitsToDouble(value);
+            default:
+                throw new IllegalArgumentException("Not an unboxed primitive: " + method);
+        }
+    }
+
+    private static long unbox(Method method, Object value) {
+        switch (method.getValue()) {
+            case Method.BoolValue:
+                return ((Boolean)value) ? 1 : 0;
+            case Method.Float32Value:
+                return Float.floatToRawIntBits(((Number)value).floatValue());
+            case Method.Float64Value:
+                return Double.doubleToRawLongBits(((Number)value).doubleValue());
+            default:
+                return ((Number)value).longValue();
+        }
+    }
+
+    private interface FieldDecoder {
+        public void decode(Decoder d, Object[] objects, long[] primitives) throws IOException;
+    }
+
+    private interface FieldEncoder {
+        public void encode(Encoder e, Object[] objects, long[] primitives) throws IOException;
+    }
+}
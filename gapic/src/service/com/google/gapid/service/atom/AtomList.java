@@ -28,8 +28,58 @@ import com.google.gapid.rpclib.schema.Variant;
 import java.io.IOException;
 
 public final class AtomList implements BinaryObject {
+  private volatile Store myStore;
+
   public Atom get(long index) {
-    return myAtoms[(int)index];
+    Store store = myStore;
+    if (store == null) {
+      Atom[] atoms = myAtoms;
+      if (atoms != null) {
+        return atoms[(int)index];
+      }
+      store = getSwappedStore();
+    }
+    return store.getAtom(index);
+  }
+
+  public int getAtomCount() {
+    Store store = myStore;
+    if (store == null) {
+      Atom[] atoms = myAtoms;
+      if (atoms != null) {
+        return atoms.length;
+      }
+      store = getSwappedStore();
+    }
+    return store.getAtomCount();
+  }
+
+  /**
+   * Replaces the decoded atoms of this list with the given store. Once set, the atoms are only
+   * accessible via {@link #get(long)} and {@link #getAtoms()} returns {@code null}.
+   */
+  public synchronized AtomList setStore(Store store) {
+    myStore = store;
+    myAtoms = null;
+    return this;
+  }
+
+  /**
+   * Returns the store of a reader that saw the decoded atoms already cleared by a concurrent
+   * {@link #setStore(Store)}, by synchronizing with it.
+   */
+  private synchronized Store getSwappedStore() {
+    return myStore;
+  }
+
+  /**
+   * Storage of the atoms of a list, which can materialize the atoms as they are accessed, rather
+   * than keeping them all in memory.
+   */
+  public interface Store {
+    public int getAtomCount();
+
+    public Atom getAtom(long index);
   }
 
   //<<<Start:Java.ClassBody:1>>>